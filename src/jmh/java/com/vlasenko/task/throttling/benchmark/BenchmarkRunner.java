@@ -0,0 +1,38 @@
+package com.vlasenko.task.throttling.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Runs the throttling benchmarks once per thread count with the GC (allocation rate) profiler and writes
+ * JSON results to {@code target/jmh}, so they can be compared across commits. Regular JMH command line
+ * options are honoured; {@code -t} narrows the run to a single thread count.
+ */
+public class BenchmarkRunner {
+    private static final int[] THREADS = {1, 4, 16, 64};
+
+    public static void main(String[] args) throws Exception {
+        var commandLine = new CommandLineOptions(args);
+        var threads = commandLine.getThreads().hasValue() ? new int[]{commandLine.getThreads().get()} : THREADS;
+        var resultDir = Files.createDirectories(Paths.get("target", "jmh"));
+
+        for (var count : threads) {
+            var options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .threads(count)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(resultDir.resolve("result-" + count + "-threads.json").toString());
+            if (commandLine.getIncludes().isEmpty()) {
+                options.include(BenchmarkRunner.class.getPackageName() + ".*Benchmark");
+            }
+            new Runner(options.build()).run();
+        }
+    }
+}
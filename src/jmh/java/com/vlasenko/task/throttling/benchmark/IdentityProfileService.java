@@ -0,0 +1,19 @@
+package com.vlasenko.task.throttling.benchmark;
+
+import com.vlasenko.task.profile.service.ProfileService;
+
+import java.time.Duration;
+
+/**
+ * Treats every token as the id of its user.
+ */
+class IdentityProfileService extends ProfileService {
+    IdentityProfileService() {
+        super("", Duration.ZERO, 0);
+    }
+
+    @Override
+    public String findByToken(String token) {
+        return token;
+    }
+}
@@ -0,0 +1,31 @@
+package com.vlasenko.task.throttling.benchmark;
+
+import com.vlasenko.task.throttling.sla.SlaService;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * SLA backend answering immediately, every token is a user of its own with the same RPS.
+ */
+class InstantSlaService implements SlaService {
+    private final int rps;
+
+    InstantSlaService(int rps) {
+        this.rps = rps;
+    }
+
+    @Override
+    public CompletableFuture<SLA> getSlaByToken(String token) {
+        return CompletableFuture.completedFuture(new SLA(token, rps));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, SLA>> getSlaByTokens(Collection<String> tokens) {
+        var result = new HashMap<String, SLA>();
+        tokens.forEach(token -> result.put(token, new SLA(token, rps)));
+        return CompletableFuture.completedFuture(result);
+    }
+}
@@ -0,0 +1,108 @@
+package com.vlasenko.task.throttling.benchmark;
+
+import com.vlasenko.task.throttling.LimitOverrides;
+import com.vlasenko.task.throttling.LimiterFactory;
+import com.vlasenko.task.throttling.QuotaHierarchy;
+import com.vlasenko.task.throttling.ThrottlingServiceImpl;
+import com.vlasenko.task.throttling.UserLimiterCache;
+import com.vlasenko.task.throttling.clock.Clock;
+import com.vlasenko.task.throttling.limiter.LimiterAlgorithm;
+import com.vlasenko.task.throttling.limiter.OffHeapLimiterTable;
+import com.vlasenko.task.throttling.metrics.ThrottlingMetrics;
+import com.vlasenko.task.throttling.sla.SlaLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Users kept in the heap cache against the off-heap table: decisions over a million users, with the gc profiler
+ * showing allocation and collection cost, and the heap retained per user printed once the store is filled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-XX:MaxDirectMemorySize=1g"})
+public class LimiterStoreBenchmark {
+    private static final int USERS = 1_000_000;
+    private static final int SAMPLES = 1 << 20;
+
+    @Param({"heap", "off-heap"})
+    private String store;
+
+    private ThrottlingServiceImpl service;
+    private Optional<String>[] tokens;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = new SplittableRandom().nextInt(SAMPLES);
+
+        int next() {
+            return next++ & (SAMPLES - 1);
+        }
+    }
+
+    @Setup
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void setUp() {
+        var users = new Optional[USERS];
+        for (int i = 0; i < USERS; i++) {
+            users[i] = Optional.of("user" + i);
+        }
+        var before = usedHeap();
+        service = create("off-heap".equals(store));
+        for (var user : users) {
+            // Loads complete immediately, so this fills the store up
+            service.isRequestAllowed(user);
+        }
+        System.out.printf("%n%s store retains %d heap bytes per user%n", store, (usedHeap() - before) / USERS);
+
+        tokens = new Optional[SAMPLES];
+        var random = new SplittableRandom(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            tokens[i] = users[random.nextInt(USERS)];
+        }
+    }
+
+    @Benchmark
+    public boolean randomUsers(Cursor cursor) {
+        return service.isRequestAllowed(tokens[cursor.next()]);
+    }
+
+    private static ThrottlingServiceImpl create(boolean offHeap) {
+        var metrics = new ThrottlingMetrics();
+        var slaLoader = new SlaLoader(new InstantSlaService(1000), Duration.ofSeconds(3), 1, Duration.ofMillis(10),
+                Duration.ofSeconds(30), 20, Duration.ofSeconds(10), metrics);
+        var cache = new UserLimiterCache(2 * USERS, Duration.ofMinutes(10), Duration.ofMinutes(5));
+        var table = offHeap
+                ? new OffHeapLimiterTable(2 * USERS, Duration.ofMinutes(10), Duration.ofMinutes(5), Clock.SYSTEM)
+                : null;
+        var limiterFactory = new LimiterFactory(LimiterAlgorithm.FIXED_WINDOW, 10_000, 0, null, 10, Clock.SYSTEM);
+        return new ThrottlingServiceImpl(1000, limiterFactory, slaLoader, new IdentityProfileService(), cache, metrics,
+                table, null, new QuotaHierarchy(limiterFactory, 0, Map.of()),
+                LimitOverrides.NONE, null, null);
+    }
+
+    private static long usedHeap() {
+        var runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
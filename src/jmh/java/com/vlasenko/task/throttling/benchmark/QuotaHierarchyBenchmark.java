@@ -0,0 +1,69 @@
+package com.vlasenko.task.throttling.benchmark;
+
+import com.vlasenko.task.throttling.LimiterFactory;
+import com.vlasenko.task.throttling.QuotaHierarchy;
+import com.vlasenko.task.throttling.clock.Clock;
+import com.vlasenko.task.throttling.limiter.FixedWindowLimiter;
+import com.vlasenko.task.throttling.limiter.LimiterAlgorithm;
+import com.vlasenko.task.throttling.limiter.RateLimiter;
+import com.vlasenko.task.throttling.sla.SlaService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A four-level check (user, organisation, endpoint, global) against a single user limiter: allowed by every
+ * level, and rejected by the organisation after the user's permit was taken and has to be given back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuotaHierarchyBenchmark {
+    private static final int HIGH = 100_000_000;
+    private static final String ENDPOINT = "/greetings";
+
+    private QuotaHierarchy quotas;
+    private RateLimiter user;
+    private SlaService.SLA sla;
+    private SlaService.SLA exhaustedSla;
+
+    @Setup
+    public void setUp() {
+        // Below the striping threshold, so every level is a plain fixed window
+        var limiterFactory = new LimiterFactory(LimiterAlgorithm.FIXED_WINDOW, Integer.MAX_VALUE, 0, null, 10,
+                Clock.SYSTEM);
+        quotas = new QuotaHierarchy(limiterFactory, HIGH, Map.of(ENDPOINT, HIGH));
+        user = new FixedWindowLimiter(HIGH);
+        sla = new SlaService.SLA("user", HIGH, null, "acme", HIGH);
+        exhaustedSla = new SlaService.SLA("other", HIGH, null, "exhausted", 1);
+        quotas.getOrganisation(exhaustedSla).tryAcquire();
+    }
+
+    @Benchmark
+    public int singleLimiter() {
+        return user.tryAcquire();
+    }
+
+    @Benchmark
+    public boolean allLevels() {
+        return quotas.tryAcquire(user, quotas.getOrganisation(sla), quotas.getEndpoint(ENDPOINT), 1);
+    }
+
+    @Benchmark
+    public boolean rejectedByOrganisation() {
+        return quotas.tryAcquire(user, quotas.getOrganisation(exhaustedSla), quotas.getEndpoint(ENDPOINT), 1);
+    }
+}
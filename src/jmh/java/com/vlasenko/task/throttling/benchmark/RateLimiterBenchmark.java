@@ -0,0 +1,48 @@
+package com.vlasenko.task.throttling.benchmark;
+
+import com.vlasenko.task.throttling.limiter.LimiterAlgorithm;
+import com.vlasenko.task.throttling.limiter.RateLimiter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single limiter shared by all benchmark threads. The low limit measures the (mostly rejecting) exhausted
+ * window, the high one the allowing path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterBenchmark {
+
+    @Param({"FIXED_WINDOW", "TOKEN_BUCKET", "SLIDING_WINDOW", "GCRA"})
+    private LimiterAlgorithm algorithm;
+
+    @Param({"10", "10000000"})
+    private int rps;
+
+    private RateLimiter limiter;
+
+    @Setup
+    public void setUp() {
+        limiter = algorithm.create(rps);
+    }
+
+    @Benchmark
+    public int tryAcquire() {
+        return limiter.tryAcquire();
+    }
+}
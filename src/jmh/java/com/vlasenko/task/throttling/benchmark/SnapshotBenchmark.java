@@ -0,0 +1,102 @@
+package com.vlasenko.task.throttling.benchmark;
+
+import com.vlasenko.task.throttling.LimiterFactory;
+import com.vlasenko.task.throttling.UserLimiterCache;
+import com.vlasenko.task.throttling.UserLimiterSnapshotter;
+import com.vlasenko.task.throttling.clock.Clock;
+import com.vlasenko.task.throttling.limiter.LimiterAlgorithm;
+import com.vlasenko.task.throttling.sla.SlaService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a snapshot of a million cached users and restoring it into an empty cache, as done on startup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SnapshotBenchmark {
+    private static final int USERS = 1_000_000;
+
+    private final LimiterFactory limiterFactory =
+            new LimiterFactory(LimiterAlgorithm.FIXED_WINDOW, 10_000, 0, null, 10, Clock.SYSTEM);
+    private Path dir;
+    private String file;
+    private UserLimiterSnapshotter full;
+    private UserLimiterCache empty;
+    private UserLimiterSnapshotter restoring;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("snapshot-benchmark");
+        file = dir.resolve("limiters.snapshot").toString();
+        var cache = cache();
+        for (int i = 0; i < USERS; i++) {
+            cache.put(new SlaService.SLA("user" + i, 100), limiterFactory);
+            cache.getIfPresent("user" + i).getLimiter().tryAcquire();
+        }
+        full = new UserLimiterSnapshotter(cache, limiterFactory, file, Duration.ofDays(1));
+        full.write();
+    }
+
+    @Setup(Level.Invocation)
+    public void emptyCache() {
+        // Users restored by the previous invocation would otherwise be collected during this one
+        empty = null;
+        System.gc();
+        empty = cache();
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopRestoring() {
+        if (restoring != null) {
+            restoring.shutdown();
+            restoring = null;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        full.shutdown();
+        try (var files = Files.walk(dir)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        return full.write();
+    }
+
+    /**
+     * Restores while being created, like on startup
+     */
+    @Benchmark
+    public long restore() {
+        restoring = new UserLimiterSnapshotter(empty, limiterFactory, file, Duration.ofDays(1));
+        return empty.getEstimatedSize();
+    }
+
+    private static UserLimiterCache cache() {
+        return new UserLimiterCache(2 * USERS, Duration.ofMinutes(10), Duration.ofMinutes(5));
+    }
+}
@@ -0,0 +1,52 @@
+package com.vlasenko.task.throttling.benchmark;
+
+import com.vlasenko.task.throttling.limiter.FixedWindowLimiter;
+import com.vlasenko.task.throttling.limiter.RateLimiter;
+import com.vlasenko.task.throttling.limiter.StripedLimiter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One very hot user: a striped limiter against a plain fixed window with the same limit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StripedLimiterBenchmark {
+
+    @Param({"50000", "10000000"})
+    private int rps;
+
+    private RateLimiter fixed;
+    private RateLimiter striped;
+
+    @Setup
+    public void setUp() {
+        fixed = new FixedWindowLimiter(rps);
+        striped = new StripedLimiter(rps);
+    }
+
+    @Benchmark
+    public int fixedWindow() {
+        return fixed.tryAcquire();
+    }
+
+    @Benchmark
+    public int striped() {
+        return striped.tryAcquire();
+    }
+}
@@ -0,0 +1,44 @@
+package com.vlasenko.task.throttling.benchmark;
+
+import com.vlasenko.task.throttling.metrics.ThrottlingMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording one decision, shared by all threads: should scale with threads and allocate nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThrottlingMetricsBenchmark {
+    private final ThrottlingMetrics metrics = new ThrottlingMetrics();
+
+    /**
+     * Latencies to record, per thread so that the benchmark itself writes nothing shared
+     */
+    @State(Scope.Thread)
+    public static class Latency {
+        private long next;
+
+        long next() {
+            return ++next & 0xFFFF;
+        }
+    }
+
+    @Benchmark
+    public void recordDecision(Latency latency) {
+        metrics.recordDecision(ThrottlingMetrics.RequestClass.USER, true, latency.next());
+    }
+}
@@ -0,0 +1,135 @@
+package com.vlasenko.task.throttling.benchmark;
+
+import com.vlasenko.task.throttling.LimitOverrides;
+import com.vlasenko.task.throttling.LimiterFactory;
+import com.vlasenko.task.throttling.QuotaHierarchy;
+import com.vlasenko.task.throttling.ThrottlingServiceImpl;
+import com.vlasenko.task.throttling.UserLimiterCache;
+import com.vlasenko.task.throttling.clock.Clock;
+import com.vlasenko.task.throttling.limiter.LimiterAlgorithm;
+import com.vlasenko.task.throttling.metrics.ThrottlingMetrics;
+import com.vlasenko.task.throttling.sla.SlaLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end {@link ThrottlingServiceImpl#isRequestAllowed(Optional)} decisions for guests, one hot user,
+ * a Zipfian mix over a million cached users and users missing from the cache. Tokens are their users' ids.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ThrottlingServiceBenchmark {
+    private static final int USERS = 1_000_000;
+    private static final int SAMPLES = 1 << 20;
+    private static final int COLD_CACHE_SIZE = 1024;
+    private static final Optional<String> HOT_USER = Optional.of("hot");
+
+    @Param({"10", "1000000"})
+    private int rps;
+
+    private ThrottlingServiceImpl service;
+    private ThrottlingServiceImpl coldService;
+    private Optional<String>[] zipfianTokens;
+    private Optional<String>[] coldTokens;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = new SplittableRandom().nextInt(SAMPLES);
+
+        int next() {
+            return next++ & (SAMPLES - 1);
+        }
+    }
+
+    @Setup
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void setUp() {
+        service = create(2 * USERS);
+        coldService = create(COLD_CACHE_SIZE);
+
+        var users = new Optional[USERS];
+        for (int i = 0; i < USERS; i++) {
+            users[i] = Optional.of("user" + i);
+            // Loads complete immediately, so this warms the cache up
+            service.isRequestAllowed(users[i]);
+        }
+        service.isRequestAllowed(HOT_USER);
+
+        zipfianTokens = new Optional[SAMPLES];
+        var cdf = zipfianCdf(USERS, 1.0);
+        var random = new SplittableRandom(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            var rank = Arrays.binarySearch(cdf, random.nextDouble());
+            zipfianTokens[i] = users[Math.min(USERS - 1, rank < 0 ? -rank - 1 : rank)];
+        }
+
+        coldTokens = new Optional[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            coldTokens[i] = Optional.of("cold" + i);
+        }
+    }
+
+    @Benchmark
+    public boolean guest() {
+        return service.isRequestAllowed(Optional.empty());
+    }
+
+    @Benchmark
+    public boolean hotUser() {
+        return service.isRequestAllowed(HOT_USER);
+    }
+
+    @Benchmark
+    public boolean zipfianUsers(Cursor cursor) {
+        return service.isRequestAllowed(zipfianTokens[cursor.next()]);
+    }
+
+    @Benchmark
+    public boolean coldCacheMisses(Cursor cursor) {
+        return coldService.isRequestAllowed(coldTokens[cursor.next()]);
+    }
+
+    private ThrottlingServiceImpl create(int cacheSize) {
+        var metrics = new ThrottlingMetrics();
+        var slaLoader = new SlaLoader(new InstantSlaService(rps), Duration.ofSeconds(3), 1, Duration.ofMillis(10),
+                Duration.ofSeconds(30), 20, Duration.ofSeconds(10), metrics);
+        var cache = new UserLimiterCache(cacheSize, Duration.ofMinutes(10), Duration.ofMinutes(5));
+        var limiterFactory = new LimiterFactory(LimiterAlgorithm.FIXED_WINDOW, 10_000, 0, null, 10, Clock.SYSTEM);
+        return new ThrottlingServiceImpl(rps, limiterFactory, slaLoader, new IdentityProfileService(), cache,
+                metrics, null, null, new QuotaHierarchy(limiterFactory, 0, Map.of()),
+                LimitOverrides.NONE, null, null);
+    }
+
+    private static double[] zipfianCdf(int size, double exponent) {
+        var cdf = new double[size];
+        var sum = 0.0;
+        for (int i = 0; i < size; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < size; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+}
@@ -0,0 +1,153 @@
+package com.vlasenko.task.throttling.load;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * What traffic to generate, parsed from {@code key=value} arguments:
+ * <ul>
+ *     <li>{@code rps} - comma separated arrival rates, each is run for {@code duration} after a {@code warmup};</li>
+ *     <li>{@code guest-ratio} - share of requests sent without a token;</li>
+ *     <li>{@code tokens} - comma separated {@code token:weight} pairs the other requests pick their token from,
+ *     tokens unknown to the application are throttled as guests;</li>
+ *     <li>{@code path}, {@code baseline} (also run every level with throttling disabled) and {@code report}.</li>
+ * </ul>
+ * Arguments starting with {@code --} are passed to the application, e.g. {@code --app.throttling.guest-rps=1000}.
+ */
+class LoadProfile {
+    private int[] rps = {200, 500, 1000};
+    private Duration duration = Duration.ofSeconds(10);
+    private Duration warmup = Duration.ofSeconds(3);
+    private double guestRatio = 0.2;
+    private String[] tokens = {"token11", "token12", "token2", "unknown"};
+    private int[] cumulativeWeights = {1, 2, 3, 4};
+    private String path = "/greetings";
+    private boolean baseline = true;
+    private Path report = Paths.get("target", "load", "report.json");
+    private final List<String> applicationArgs = new ArrayList<>();
+
+    static LoadProfile parse(String... args) {
+        var profile = new LoadProfile();
+        for (var arg : args) {
+            if (arg.startsWith("--")) {
+                profile.applicationArgs.add(arg);
+                continue;
+            }
+            var separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            profile.set(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return profile;
+    }
+
+    private void set(String key, String value) {
+        switch (key) {
+            case "rps":
+                rps = Arrays.stream(value.split(",")).mapToInt(level -> Integer.parseInt(level.trim())).toArray();
+                break;
+            case "duration":
+                duration = DurationStyle.detectAndParse(value);
+                break;
+            case "warmup":
+                warmup = DurationStyle.detectAndParse(value);
+                break;
+            case "guest-ratio":
+                guestRatio = Double.parseDouble(value);
+                break;
+            case "tokens":
+                var pairs = value.split(",");
+                tokens = new String[pairs.length];
+                cumulativeWeights = new int[pairs.length];
+                var total = 0;
+                for (int i = 0; i < pairs.length; i++) {
+                    var pair = pairs[i].trim().split(":");
+                    tokens[i] = pair[0];
+                    total += pair.length > 1 ? Integer.parseInt(pair[1]) : 1;
+                    cumulativeWeights[i] = total;
+                }
+                break;
+            case "path":
+                path = value;
+                break;
+            case "baseline":
+                baseline = Boolean.parseBoolean(value);
+                break;
+            case "report":
+                report = Paths.get(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + key);
+        }
+    }
+
+    /**
+     * @return token of the next request, null for a guest
+     */
+    String nextToken() {
+        var random = ThreadLocalRandom.current();
+        if (tokens.length == 0 || random.nextDouble() < guestRatio) {
+            return null;
+        }
+        var pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; ; i++) {
+            if (pick < cumulativeWeights[i]) {
+                return tokens[i];
+            }
+        }
+    }
+
+    int[] getRps() {
+        return rps;
+    }
+
+    Duration getDuration() {
+        return duration;
+    }
+
+    Duration getWarmup() {
+        return warmup;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    boolean isBaseline() {
+        return baseline;
+    }
+
+    Path getReport() {
+        return report;
+    }
+
+    List<String> getApplicationArgs() {
+        return applicationArgs;
+    }
+
+    Map<String, Object> describe() {
+        var mix = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < tokens.length; i++) {
+            mix.put(tokens[i], cumulativeWeights[i] - (i > 0 ? cumulativeWeights[i - 1] : 0));
+        }
+        var result = new LinkedHashMap<String, Object>();
+        result.put("rps", rps);
+        result.put("durationMillis", duration.toMillis());
+        result.put("warmupMillis", warmup.toMillis());
+        result.put("guestRatio", guestRatio);
+        result.put("tokens", mix);
+        result.put("path", path);
+        result.put("applicationArgs", applicationArgs);
+        return result;
+    }
+}
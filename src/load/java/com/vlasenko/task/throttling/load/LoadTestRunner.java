@@ -0,0 +1,66 @@
+package com.vlasenko.task.throttling.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.vlasenko.task.TestTaskApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Boots the application on a random local port and runs every arrival rate of the {@link LoadProfile} against it
+ * over real HTTP, then once more with throttling disabled as a baseline, and writes a JSON report with the
+ * outcomes and latency percentiles of guest and user requests, so throttling overhead can be compared across
+ * releases. Each run gets a fresh application, so limits and caches do not carry over between them.
+ */
+public class LoadTestRunner {
+
+    public static void main(String[] args) throws Exception {
+        var profile = LoadProfile.parse(args);
+        var executor = Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, "load-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(executor).build();
+
+        var report = new LinkedHashMap<String, Object>();
+        report.put("startedAt", Instant.now().toString());
+        report.put("profile", profile.describe());
+        report.put("throttled", run(client, profile, true));
+        if (profile.isBaseline()) {
+            report.put("baseline", run(client, profile, false));
+        }
+
+        Files.createDirectories(profile.getReport().toAbsolutePath().getParent());
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(profile.getReport().toFile(), report);
+        System.out.println("Load test report written to " + profile.getReport().toAbsolutePath());
+        executor.shutdownNow();
+    }
+
+    private static List<Map<String, Object>> run(HttpClient client, LoadProfile profile, boolean throttling)
+            throws InterruptedException {
+        var levels = new ArrayList<Map<String, Object>>();
+        for (var rps : profile.getRps()) {
+            var args = new ArrayList<>(profile.getApplicationArgs());
+            args.add("--server.port=0");
+            args.add("--app.throttling.enabled=" + throttling);
+            var application = new SpringApplicationBuilder(TestTaskApplication.class);
+            try (var context = application.run(args.toArray(String[]::new))) {
+                var port = ((WebServerApplicationContext) context).getWebServer().getPort();
+                var uri = URI.create("http://localhost:" + port + profile.getPath());
+                levels.add(new OpenModelLoad(client, uri, profile).run(rps));
+            }
+        }
+        return levels;
+    }
+}
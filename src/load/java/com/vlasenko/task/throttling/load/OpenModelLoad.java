@@ -0,0 +1,133 @@
+package com.vlasenko.task.throttling.load;
+
+import com.vlasenko.task.throttling.metrics.LatencyHistogram;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests at a constant arrival rate whatever the server does: request {@code i} is due at
+ * {@code start + i / rps} and is sent then, or right away if the sender is late, without waiting for earlier
+ * responses. Latency is measured from the due time rather than from the actual send, so time a request spends
+ * queued behind slow ones is counted too (no coordinated omission).
+ */
+class OpenModelLoad {
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(30);
+
+    private final HttpClient client;
+    private final URI uri;
+    private final LoadProfile profile;
+
+    OpenModelLoad(HttpClient client, URI uri, LoadProfile profile) {
+        this.client = client;
+        this.uri = uri;
+        this.profile = profile;
+    }
+
+    /**
+     * @return outcomes and latencies of guest and user requests sent for {@code duration} after the warmup
+     */
+    Map<String, Object> run(int rps) throws InterruptedException {
+        send(rps, profile.getWarmup(), null, null);
+        var guests = new Outcomes();
+        var users = new Outcomes();
+        var started = System.nanoTime();
+        var unfinished = send(rps, profile.getDuration(), guests, users);
+        var elapsed = System.nanoTime() - started;
+
+        var result = new LinkedHashMap<String, Object>();
+        result.put("rps", rps);
+        result.put("achievedRps", (guests.total() + users.total()) * 1e9 / elapsed);
+        result.put("unfinished", unfinished);
+        result.put("guest", guests.report());
+        result.put("user", users.report());
+        return result;
+    }
+
+    /**
+     * @return requests without a response {@link #DRAIN_TIMEOUT} after the last one was sent
+     */
+    private int send(int rps, Duration duration, Outcomes guests, Outcomes users) throws InterruptedException {
+        var interval = TimeUnit.SECONDS.toNanos(1) / rps;
+        var count = duration.toNanos() / interval;
+        var inFlight = new AtomicInteger();
+        var start = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            var due = start + i * interval;
+            var delay = due - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            var token = profile.nextToken();
+            var request = HttpRequest.newBuilder(uri).GET();
+            if (token != null) {
+                request.header("token", token);
+            }
+            var outcomes = token == null ? guests : users;
+            inFlight.incrementAndGet();
+            client.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        if (outcomes != null) {
+                            outcomes.record(error == null ? response.statusCode() : 0, System.nanoTime() - due);
+                        }
+                        inFlight.decrementAndGet();
+                    });
+        }
+        var deadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+        return inFlight.get();
+    }
+
+    private static class Outcomes {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram allowedLatency = new LatencyHistogram();
+        private final LongAdder allowed = new LongAdder();
+        private final LongAdder throttled = new LongAdder();
+        private final LongAdder overloaded = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        void record(int status, long nanos) {
+            latency.record(nanos);
+            if (status == 200) {
+                allowed.increment();
+                allowedLatency.record(nanos);
+            } else if (status == 429) {
+                throttled.increment();
+            } else if (status == 503) {
+                overloaded.increment();
+            } else {
+                failed.increment();
+            }
+        }
+
+        long total() {
+            return allowed.sum() + throttled.sum() + overloaded.sum() + failed.sum();
+        }
+
+        Map<String, Object> report() {
+            var total = total();
+            var result = new LinkedHashMap<String, Object>();
+            result.put("requests", total);
+            result.put("allowed", allowed.sum());
+            result.put("throttled", throttled.sum());
+            result.put("overloaded", overloaded.sum());
+            result.put("failed", failed.sum());
+            result.put("allowedRatio", total > 0 ? (double) allowed.sum() / total : 0);
+            result.put("throttledRatio", total > 0 ? (double) throttled.sum() / total : 0);
+            result.put("latencyNanos", latency.snapshot());
+            result.put("allowedLatencyNanos", allowedLatency.snapshot());
+            return result;
+        }
+    }
+}
@@ -1,37 +1,17 @@
 package com.vlasenko.task.profile.api;
 
-import com.vlasenko.task.throttling.ThrottlingService;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpStatus;
+import com.vlasenko.task.throttling.web.Throttled;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.RequestHeader;
-import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.util.Optional;
-
 @RestController
 public class ProfileApi {
+    private static final ResponseEntity<String> GREETING = ResponseEntity.ok("Hello there!!");
 
-    @Autowired
-    private ThrottlingService throttlingService;
-
-    @Value("${app.throttling.enabled:true}")
-    private boolean throttlingEnabled;
-
+    @Throttled
     @GetMapping(path = "/greetings")
-    public String greetThemAll(@RequestHeader(value = "token", required = false) String token) {
-        if (throttlingEnabled && !throttlingService.isRequestAllowed(Optional.ofNullable(token))) {
-            throw new ThrottlingException("Noo");
-        }
-        return "Hello there!!";
-    }
-
-    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
-    private static class ThrottlingException extends RuntimeException {
-        public ThrottlingException(String message) {
-            super(message);
-        }
+    public ResponseEntity<String> greetThemAll() {
+        return GREETING;
     }
 }
@@ -1,13 +1,24 @@
 package com.vlasenko.task.profile.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.vlasenko.task.watch.FileWatcher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
+/**
+ * Resolves tokens to user ids through a memory-mapped {@link TokenIndex}. The index file is checked for changes
+ * every {@code reload-interval} and a changed file is swapped in atomically, the previous index keeps serving
+ * lookups until then. Without an index file the built-in tokens are used.
+ */
 @Service
 public class ProfileService {
     private static final Map<String, String> map = new HashMap<>();
@@ -18,7 +29,49 @@ public class ProfileService {
         map.put("token2", "user2");
     }
 
-    public Optional<String> findByToken(String token) {
-        return Optional.ofNullable(map.get(token));
+    /**
+     * Recently seen tokens missing from the index, each with the index it is missing from
+     */
+    private final Cache<String, TokenIndex> unknownTokens;
+    private final FileWatcher watcher;
+    private volatile TokenIndex index;
+
+    public ProfileService(@Value("${app.profile.index-file:}") String indexFile,
+                          @Value("${app.profile.reload-interval:10s}") Duration reloadInterval,
+                          @Value("${app.profile.negative-cache-size:100000}") long negativeCacheSize) {
+        this.unknownTokens = Caffeine.newBuilder().maximumSize(negativeCacheSize).build();
+        this.watcher = indexFile.isEmpty() ? null
+                : new FileWatcher(Path.of(indexFile), "token index", reloadInterval, this::load);
+    }
+
+    /**
+     * @return id of the token's user, null for unknown tokens
+     */
+    @Nullable
+    public String findByToken(String token) {
+        var index = this.index;
+        if (index == null) {
+            return map.get(token);
+        }
+        if (unknownTokens.getIfPresent(token) == index) {
+            return null;
+        }
+        var user = index.find(token);
+        if (user == null) {
+            unknownTokens.put(token, index);
+        }
+        return user;
+    }
+
+    private void load(Path file) throws IOException {
+        index = TokenIndex.open(file);
+        unknownTokens.invalidateAll();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (watcher != null) {
+            watcher.shutdown();
+        }
     }
 }
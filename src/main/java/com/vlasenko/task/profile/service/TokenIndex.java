@@ -0,0 +1,179 @@
+package com.vlasenko.task.profile.service;
+
+import com.vlasenko.task.throttling.Hashes;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Read-only token to user index in a memory-mapped file, so that tens of millions of tokens cost no heap objects
+ * and opening the index does not read it. The file is an open-addressing hash table of 12-byte slots with a
+ * load factor of at most 1/2, followed by the entries:
+ * <pre>
+ * header:  int magic, int version, int slot count (a power of two), int entry count
+ * slots:   long hash of the token (0 for a free slot), int file offset of the entry
+ * entries: unsigned short length, UTF-8 token, unsigned short length, UTF-8 user id
+ * </pre>
+ * The whole file must fit in 2GB. Indexes are replaced by writing a new file and moving it over the old one,
+ * which leaves the mapping of the old file intact for readers still using it.
+ */
+public class TokenIndex {
+    private static final int MAGIC = 0x544B4958;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 12;
+
+    private final MappedByteBuffer buffer;
+    private final int mask;
+    private final int size;
+
+    private TokenIndex(MappedByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a token index");
+        }
+        this.buffer = buffer;
+        this.mask = buffer.getInt(8) - 1;
+        this.size = buffer.getInt(12);
+    }
+
+    public static TokenIndex open(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new TokenIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes an index of the tokens to a temporary file next to {@code file} and moves it into place.
+     */
+    public static void write(Path file, Map<String, String> tokens) throws IOException {
+        var slotCount = Integer.highestOneBit(Math.max(1, tokens.size()) * 4 - 1);
+        var mask = slotCount - 1;
+        var slots = new long[slotCount];
+        var offsets = new int[slotCount];
+        var entries = new byte[tokens.size()][];
+        var offset = (long) HEADER_SIZE + (long) slotCount * SLOT_SIZE;
+        var i = 0;
+        for (var entry : tokens.entrySet()) {
+            var token = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            var user = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            if (token.length > 0xFFFF || user.length > 0xFFFF) {
+                throw new IllegalArgumentException("Token or user id is too long: " + entry.getKey());
+            }
+            var hash = Hashes.key(entry.getKey());
+            var slot = (int) hash & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = hash;
+            offsets[slot] = Math.toIntExact(offset);
+
+            var bytes = new byte[4 + token.length + user.length];
+            bytes[0] = (byte) (token.length >>> 8);
+            bytes[1] = (byte) token.length;
+            System.arraycopy(token, 0, bytes, 2, token.length);
+            bytes[2 + token.length] = (byte) (user.length >>> 8);
+            bytes[3 + token.length] = (byte) user.length;
+            System.arraycopy(user, 0, bytes, 4 + token.length, user.length);
+            entries[i++] = bytes;
+            offset += bytes.length;
+        }
+        if (offset > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Index does not fit in 2GB");
+        }
+
+        var temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(slotCount);
+            out.writeInt(tokens.size());
+            for (int slot = 0; slot < slotCount; slot++) {
+                out.writeLong(slots[slot]);
+                out.writeInt(offsets[slot]);
+            }
+            for (var bytes : entries) {
+                out.write(bytes);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return id of the token's user, null if the token is not in the index
+     */
+    public String find(String token) {
+        var hash = Hashes.key(token);
+        var slot = (int) hash & mask;
+        while (true) {
+            var position = HEADER_SIZE + slot * SLOT_SIZE;
+            var slotHash = buffer.getLong(position);
+            if (slotHash == 0) {
+                return null;
+            }
+            if (slotHash == hash) {
+                var entry = buffer.getInt(position + 8);
+                if (matches(entry, token)) {
+                    return readUser(entry);
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private boolean matches(int entry, String token) {
+        var length = buffer.getShort(entry) & 0xFFFF;
+        var start = entry + 2;
+        if (length == token.length()) {
+            // ASCII tokens, the usual case, are compared without encoding them
+            for (int i = 0; i < length; i++) {
+                var c = token.charAt(i);
+                if (c >= 0x80) {
+                    return matchesEncoded(start, length, token);
+                }
+                if (buffer.get(start + i) != c) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return matchesEncoded(start, length, token);
+    }
+
+    private boolean matchesEncoded(int start, int length, String token) {
+        var bytes = token.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readUser(int entry) {
+        var position = entry + 2 + (buffer.getShort(entry) & 0xFFFF);
+        var bytes = new byte[buffer.getShort(position) & 0xFFFF];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(position + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
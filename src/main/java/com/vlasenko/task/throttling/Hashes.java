@@ -0,0 +1,36 @@
+package com.vlasenko.task.throttling;
+
+/**
+ * 64-bit FNV-1a of a string's chars with a final mix, the one hash of tokens, user ids and client keys. Tables
+ * keyed by it on both sides, e.g. {@link com.vlasenko.task.profile.service.TokenIndex} files and the audit log,
+ * must match, so it lives in one place.
+ */
+public final class Hashes {
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private Hashes() {
+    }
+
+    /**
+     * @return hash of the key that is never 0, for tables where 0 marks a free slot
+     */
+    public static long key(String key) {
+        var hash = hash(key, 0);
+        return hash != 0 ? hash : 1;
+    }
+
+    /**
+     * @param seed mixed into the offset basis, a random seed keeps callers from picking keys that collide
+     */
+    public static long hash(String key, long seed) {
+        var hash = OFFSET_BASIS ^ seed;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,159 @@
+package com.vlasenko.task.throttling;
+
+import com.vlasenko.task.throttling.sla.SlaService;
+import com.vlasenko.task.watch.FileWatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * Limits that can be changed without a restart, read from a local properties file:
+ * <pre>
+ * guest-rps=20
+ * user.user1=50
+ * </pre>
+ * {@code guest-rps} replaces {@code app.throttling.guest-rps}, {@code user.<id>} replaces the rps of the user's SLA.
+ * The file is checked for changes every {@code reload-interval}. A changed file is parsed into a new immutable
+ * {@link Snapshot} that replaces the current one in a single volatile write, so readers never lock and never see
+ * half of a change; a file that cannot be parsed is ignored and the previous snapshot kept.
+ */
+@Component
+public class LimitOverrides {
+    private static final Logger log = LoggerFactory.getLogger(LimitOverrides.class);
+    private static final String GUEST_RPS = "guest-rps";
+    private static final String USER_PREFIX = "user.";
+    /**
+     * Overrides of a context without an overrides file, for components created outside of one
+     */
+    public static final LimitOverrides NONE = new LimitOverrides("", Duration.ZERO);
+
+    private final FileWatcher watcher;
+    private final List<BiConsumer<Snapshot, Snapshot>> listeners = new CopyOnWriteArrayList<>();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    public LimitOverrides(@Value("${app.throttling.overrides.file:}") String file,
+                          @Value("${app.throttling.overrides.reload-interval:10s}") Duration reloadInterval) {
+        this.watcher = file.isEmpty() ? null
+                : new FileWatcher(Path.of(file), "limit overrides", reloadInterval, this::load);
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @param listener called with the previous and the new snapshot on the reloader thread after every change
+     */
+    public void addListener(BiConsumer<Snapshot, Snapshot> listener) {
+        if (watcher != null) {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * Reads the file if it has changed since it was read last.
+     */
+    void reload() throws IOException {
+        watcher.reload();
+    }
+
+    private void load(Path file) throws IOException {
+        var properties = new Properties();
+        try (var reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        var current = Snapshot.parse(properties);
+        var replaced = snapshot;
+        snapshot = current;
+        log.info("Loaded limit overrides from {}: guest rps {}, {} users", file, current.guestRps,
+                current.userRps.size());
+        listeners.forEach(listener -> listener.accept(replaced, current));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (watcher != null) {
+            watcher.shutdown();
+        }
+    }
+
+    public static class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(null, Map.of());
+
+        private final Integer guestRps;
+        private final Map<String, Integer> userRps;
+
+        private Snapshot(@Nullable Integer guestRps, Map<String, Integer> userRps) {
+            this.guestRps = guestRps;
+            this.userRps = userRps;
+        }
+
+        private static Snapshot parse(Properties properties) {
+            Integer guestRps = null;
+            var userRps = new HashMap<String, Integer>();
+            for (var name : properties.stringPropertyNames()) {
+                var rps = Integer.parseInt(properties.getProperty(name).trim());
+                if (rps < 0) {
+                    throw new IllegalArgumentException("Negative rps for " + name);
+                }
+                if (name.equals(GUEST_RPS)) {
+                    guestRps = rps;
+                } else if (name.startsWith(USER_PREFIX)) {
+                    userRps.put(name.substring(USER_PREFIX.length()), rps);
+                } else {
+                    throw new IllegalArgumentException("Unknown override " + name);
+                }
+            }
+            return new Snapshot(guestRps, Map.copyOf(userRps));
+        }
+
+        public int getGuestRps(int configured) {
+            return guestRps != null ? guestRps : configured;
+        }
+
+        public int getRps(SlaService.SLA sla) {
+            return userRps.getOrDefault(sla.getUser(), sla.getRps());
+        }
+
+        public boolean hasUser(String user) {
+            return userRps.containsKey(user);
+        }
+
+        /**
+         * @return overridden limit of the user, see {@link #hasUser(String)}
+         */
+        public int getRps(String user) {
+            return userRps.get(user);
+        }
+
+        /**
+         * @return users whose override was added, changed or removed in this snapshot
+         */
+        public Set<String> getChangedUsers(Snapshot previous) {
+            var changed = new HashSet<String>();
+            userRps.forEach((user, rps) -> {
+                if (!rps.equals(previous.userRps.get(user))) {
+                    changed.add(user);
+                }
+            });
+            previous.userRps.keySet().stream().filter(user -> !userRps.containsKey(user)).forEach(changed::add);
+            return changed;
+        }
+    }
+}
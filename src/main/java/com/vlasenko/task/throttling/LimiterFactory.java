@@ -0,0 +1,104 @@
+package com.vlasenko.task.throttling;
+
+import com.vlasenko.task.throttling.clock.Clock;
+import com.vlasenko.task.throttling.limiter.LimiterAlgorithm;
+import com.vlasenko.task.throttling.limiter.RateLimiter;
+import com.vlasenko.task.throttling.limiter.StripedLimiter;
+import com.vlasenko.task.throttling.quota.LeasedLimiter;
+import com.vlasenko.task.throttling.quota.QuotaCoordinator;
+import com.vlasenko.task.throttling.sla.SlaService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Picks the limiter implementation for an SLA: the SLA's own algorithm or the global one, and a
+ * {@link StripedLimiter} for fixed window limits above the striping threshold. When a {@link QuotaCoordinator}
+ * is configured, users' limits are shared by the cluster through {@link LeasedLimiter}s instead. Users' limits
+ * are the rps of their SLAs unless {@link LimitOverrides} say otherwise.
+ */
+@Component
+public class LimiterFactory {
+    private final LimiterAlgorithm algorithm;
+    private final int stripingThreshold;
+    private final int stripes;
+    private final QuotaCoordinator coordinator;
+    private final int leaseBatches;
+    private final Clock clock;
+    private final LimitOverrides overrides;
+
+    @Autowired
+    public LimiterFactory(@Value("${app.throttling.algorithm:fixed-window}") LimiterAlgorithm algorithm,
+                          @Value("${app.throttling.striping.threshold-rps:10000}") int stripingThreshold,
+                          @Value("${app.throttling.striping.stripes:0}") int stripes,
+                          @Nullable QuotaCoordinator coordinator,
+                          @Value("${app.throttling.quota.lease-batches:10}") int leaseBatches,
+                          Clock clock, LimitOverrides overrides) {
+        this.algorithm = algorithm;
+        this.stripingThreshold = stripingThreshold;
+        this.stripes = stripes > 0 ? stripes : Runtime.getRuntime().availableProcessors();
+        this.coordinator = coordinator;
+        this.leaseBatches = leaseBatches;
+        this.clock = clock;
+        this.overrides = overrides;
+    }
+
+    public LimiterFactory(LimiterAlgorithm algorithm, int stripingThreshold, int stripes,
+                          @Nullable QuotaCoordinator coordinator, int leaseBatches, Clock clock) {
+        this(algorithm, stripingThreshold, stripes, coordinator, leaseBatches, clock, LimitOverrides.NONE);
+    }
+
+    public RateLimiter create(SlaService.SLA sla) {
+        var rps = getRps(sla);
+        if (coordinator != null) {
+            return new LeasedLimiter(sla.getUser(), rps, leaseBatches, coordinator, clock);
+        }
+        return create(getAlgorithm(sla), rps);
+    }
+
+    /**
+     * @return whether the limiter is of the kind {@link #create(SlaService.SLA)} creates for the SLA, so that it can
+     * be resized to the user's new limit instead of being replaced
+     */
+    public boolean fits(RateLimiter limiter, SlaService.SLA sla, int rps) {
+        if (coordinator != null) {
+            return limiter instanceof LeasedLimiter;
+        }
+        var algorithm = getAlgorithm(sla);
+        if (isStriped(algorithm, rps)) {
+            return limiter instanceof StripedLimiter;
+        }
+        return algorithm.isTypeOf(limiter);
+    }
+
+    /**
+     * @return limit of the user, the SLA's rps unless it is overridden
+     */
+    public int getRps(SlaService.SLA sla) {
+        return overrides.getSnapshot().getRps(sla);
+    }
+
+    /**
+     * Creates a limiter shared by many users, such as guests, an organisation or an endpoint, with the global
+     * algorithm. It is local to the node even when users' limits are shared by the cluster.
+     */
+    public RateLimiter createShared(int rps) {
+        return create(algorithm, rps);
+    }
+
+    private RateLimiter create(LimiterAlgorithm algorithm, int rps) {
+        if (isStriped(algorithm, rps)) {
+            return new StripedLimiter(rps, stripes, clock);
+        }
+        return algorithm.create(rps, clock);
+    }
+
+    private LimiterAlgorithm getAlgorithm(SlaService.SLA sla) {
+        return sla.getAlgorithm() != null ? sla.getAlgorithm() : algorithm;
+    }
+
+    private boolean isStriped(LimiterAlgorithm algorithm, int rps) {
+        return algorithm == LimiterAlgorithm.FIXED_WINDOW && rps > stripingThreshold;
+    }
+}
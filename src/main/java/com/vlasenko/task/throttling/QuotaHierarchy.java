@@ -0,0 +1,188 @@
+package com.vlasenko.task.throttling;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.vlasenko.task.throttling.limiter.RateLimiter;
+import com.vlasenko.task.throttling.sla.SlaService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Limits above the users': the organisation a user belongs to, the endpoint called and the whole service.
+ * A request takes its permits from every level or from none. The levels are taken one after another, innermost
+ * first, and a level that rejects the request makes the ones already taken give their permits back, so no two
+ * limiters are ever locked together. A hierarchy check therefore costs one limiter check per level, plus releases
+ * for a rejection. Permits given back are briefly missing from their level, which may reject a concurrent
+ * request that would have fit.
+ * <p>
+ * Users are checked first because most rejections happen there, the global limit last so that its word, which
+ * every request would otherwise contend on, is only written for requests that pass all other levels.
+ * <p>
+ * Organisations are kept like users' limiters: up to {@code app.throttling.quota.organisations.maximum-size} of
+ * them, expired once none of their users were seen for {@code app.throttling.cache.expire-after-access}. They are
+ * keyed by the {@link Hashes#key(String)} of their name, so that users kept off heap refer to theirs by a number.
+ */
+@Component
+public class QuotaHierarchy {
+    private final LimiterFactory limiterFactory;
+    private final RateLimiter global;
+    private final Map<String, RateLimiter> endpoints = new HashMap<>();
+    private final Cache<Long, RateLimiter> organisations;
+
+    @Autowired
+    public QuotaHierarchy(LimiterFactory limiterFactory,
+                          @Value("${app.throttling.quota.global-rps:0}") int globalRps,
+                          Environment environment,
+                          @Value("${app.throttling.quota.organisations.maximum-size:100000}") long maximumOrganisations,
+                          @Value("${app.throttling.cache.expire-after-access:10m}") Duration expireAfterAccess) {
+        this(limiterFactory, globalRps, Binder.get(environment)
+                .bind("app.throttling.quota.endpoint-rps", Bindable.mapOf(String.class, Integer.class))
+                .orElse(Map.of()), maximumOrganisations, expireAfterAccess);
+    }
+
+    /**
+     * Keeps organisations with the default bounds.
+     */
+    public QuotaHierarchy(LimiterFactory limiterFactory, int globalRps, Map<String, Integer> endpointRps) {
+        this(limiterFactory, globalRps, endpointRps, 100_000, Duration.ofMinutes(10));
+    }
+
+    /**
+     * @param globalRps            limit of the whole service, 0 for none
+     * @param endpointRps          limits by endpoint path pattern, e.g. {@code /greetings/{id}}
+     * @param maximumOrganisations organisations kept at most, the least used ones are evicted first
+     * @param expireAfterAccess    time after which organisations whose users made no requests are dropped
+     */
+    public QuotaHierarchy(LimiterFactory limiterFactory, int globalRps, Map<String, Integer> endpointRps,
+                          long maximumOrganisations, Duration expireAfterAccess) {
+        this.limiterFactory = limiterFactory;
+        this.global = globalRps > 0 ? limiterFactory.createShared(globalRps) : null;
+        endpointRps.forEach((endpoint, rps) -> endpoints.put(endpoint, limiterFactory.createShared(rps)));
+        this.organisations = Caffeine.newBuilder()
+                .maximumSize(maximumOrganisations)
+                .expireAfterAccess(expireAfterAccess)
+                .build();
+    }
+
+    /**
+     * @return limiter of the organisation the SLA's user belongs to, null if the user is on their own
+     */
+    @Nullable
+    public RateLimiter getOrganisation(SlaService.SLA sla) {
+        return getOrganisation(getOrganisationKey(sla), sla.getOrganisationRps());
+    }
+
+    /**
+     * @param organisation key of the organisation, 0 for users on their own
+     * @param rps          limit of the organisation, applied if it is not kept yet
+     * @return limiter of the organisation, null for users on their own
+     */
+    @Nullable
+    public RateLimiter getOrganisation(long organisation, int rps) {
+        if (organisation == 0 || rps <= 0) {
+            return null;
+        }
+        var limiter = organisations.getIfPresent(organisation);
+        return limiter != null ? limiter : organisations.get(organisation, key -> limiterFactory.createShared(rps));
+    }
+
+    /**
+     * @return key of the organisation the SLA's user belongs to, 0 if the user is on their own
+     */
+    public static long getOrganisationKey(SlaService.SLA sla) {
+        return sla.getOrganisation() != null ? Hashes.key(sla.getOrganisation()) : 0;
+    }
+
+    /**
+     * Applies the organisation limit of a freshly loaded SLA. Cached SLAs may be older, so only fresh ones
+     * resize the limiter of an organisation whose limit has changed, in place like users' limiters: permits its
+     * users took in the current window stay taken.
+     */
+    public void update(SlaService.SLA sla) {
+        var rps = sla.getOrganisationRps();
+        if (sla.getOrganisation() == null || rps <= 0) {
+            return;
+        }
+        var current = getOrganisation(sla);
+        if (current.getLimit() != rps) {
+            current.resize(rps);
+        }
+    }
+
+    /**
+     * @param endpoint path pattern of the handler
+     * @return limiter of the endpoint, null if it has no limit of its own
+     */
+    @Nullable
+    public RateLimiter getEndpoint(@Nullable String endpoint) {
+        return endpoint != null ? endpoints.get(endpoint) : null;
+    }
+
+    /**
+     * Takes {@code permits} permits from the given levels and the global limit, or none of them.
+     *
+     * @param user         user level, null if it has been taken already
+     * @param organisation organisation level, null for none
+     * @param endpoint     endpoint level, null for none
+     * @return true if every level had the permits left
+     */
+    public boolean tryAcquire(@Nullable RateLimiter user, @Nullable RateLimiter organisation,
+                              @Nullable RateLimiter endpoint, int permits) {
+        return (user == null || user.tryAcquire(permits) >= 0)
+                && tryAcquireAbove(user, organisation, endpoint, permits);
+    }
+
+    /**
+     * Same as {@link #tryAcquire(RateLimiter, RateLimiter, RateLimiter, int)}.
+     *
+     * @return {@link RateLimitStatus} of the user level, rejected if any level did not have the permits left
+     */
+    public long tryAcquireStatus(RateLimiter user, @Nullable RateLimiter organisation,
+                                 @Nullable RateLimiter endpoint, int permits) {
+        var status = user.tryAcquireStatus(permits);
+        return !RateLimitStatus.isAllowed(status) || tryAcquireAbove(user, organisation, endpoint, permits)
+                ? status : RateLimitStatus.rejected(status);
+    }
+
+    /**
+     * Takes the permits from the levels above a user that has them, giving the user's back if any level rejects.
+     */
+    private boolean tryAcquireAbove(@Nullable RateLimiter user, @Nullable RateLimiter organisation,
+                                    @Nullable RateLimiter endpoint, int permits) {
+        if (organisation != null && organisation.tryAcquire(permits) < 0) {
+            release(user, null, null, permits);
+            return false;
+        }
+        if (endpoint != null && endpoint.tryAcquire(permits) < 0) {
+            release(user, organisation, null, permits);
+            return false;
+        }
+        if (global != null && global.tryAcquire(permits) < 0) {
+            release(user, organisation, endpoint, permits);
+            return false;
+        }
+        return true;
+    }
+
+    private static void release(@Nullable RateLimiter user, @Nullable RateLimiter organisation,
+                                @Nullable RateLimiter endpoint, int permits) {
+        if (user != null) {
+            user.release(permits);
+        }
+        if (organisation != null) {
+            organisation.release(permits);
+        }
+        if (endpoint != null) {
+            endpoint.release(permits);
+        }
+    }
+}
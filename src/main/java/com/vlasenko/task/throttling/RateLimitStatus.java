@@ -0,0 +1,77 @@
+package com.vlasenko.task.throttling;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throttling decision together with what a client needs to pace itself, packed into a {@code long} so that a decision
+ * made right away allocates nothing: bit 63 is set for allowed requests, bits 62..32 hold the limit of the user,
+ * bits 31..8 the permits left and bits 7..0 the seconds until the user's limiter expects the permits of the request to
+ * be free, i.e. until the window ends for per-second windows, see
+ * {@link com.vlasenko.task.throttling.limiter.RateLimiter#tryAcquireStatus(int)}.
+ */
+public final class RateLimitStatus {
+    /**
+     * Permits left above it are reported as it
+     */
+    public static final int MAX_REMAINING = (1 << 24) - 1;
+    /**
+     * Longer waits are reported as it
+     */
+    public static final int MAX_RETRY_AFTER = 255;
+    /**
+     * Higher limits are reported as it, so that no status has all bits set and equals {@link #PENDING}
+     */
+    public static final int MAX_LIMIT = Integer.MAX_VALUE - 1;
+    /**
+     * Not a status, returned instead of one by decisions that have to wait, see
+     * {@link ThrottlingService#tryAcquireStatus(String, String, String, int, java.time.Duration, Object,
+     * java.util.function.BiConsumer)}
+     */
+    public static final long PENDING = -1;
+
+    private RateLimitStatus() {
+    }
+
+    /**
+     * @param left      permits the user has left, as returned by the limiter; rejected requests report none left
+     * @param waitNanos time until the request could be allowed, rejected requests wait at least a second
+     */
+    public static long of(boolean allowed, int limit, int left, long waitNanos) {
+        var remaining = allowed ? Math.min(Math.max(left, 0), MAX_REMAINING) : 0;
+        var retryAfter = waitNanos >= TimeUnit.SECONDS.toNanos(MAX_RETRY_AFTER)
+                ? MAX_RETRY_AFTER
+                : (int) ((waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        if (!allowed) {
+            retryAfter = Math.max(retryAfter, 1);
+        }
+        return (allowed ? Long.MIN_VALUE : 0) | (long) Math.min(Math.max(limit, 0), MAX_LIMIT) << 32
+                | (long) remaining << 8 | retryAfter;
+    }
+
+    /**
+     * @return the status of a request its limiter allowed but another limit rejected: none left, retry after a second
+     * at least
+     */
+    public static long rejected(long status) {
+        return of(false, getLimit(status), 0, TimeUnit.SECONDS.toNanos(getRetryAfter(status)));
+    }
+
+    public static boolean isAllowed(long status) {
+        return status < 0;
+    }
+
+    public static int getLimit(long status) {
+        return (int) (status >>> 32) & Integer.MAX_VALUE;
+    }
+
+    public static int getRemaining(long status) {
+        return (int) (status >>> 8) & MAX_REMAINING;
+    }
+
+    /**
+     * @return seconds until the permits of the request are expected to be free, rounded up
+     */
+    public static int getRetryAfter(long status) {
+        return (int) status & MAX_RETRY_AFTER;
+    }
+}
@@ -0,0 +1,32 @@
+package com.vlasenko.task.throttling;
+
+/**
+ * Decision of a request that may have had to wait, see {@link RateLimitStatus} for decisions made right away.
+ */
+public final class ThrottlingDecision {
+    /**
+     * Decisions of requests that were not throttled, their status tells nothing about any limit
+     */
+    public static final ThrottlingDecision ALLOWED = new ThrottlingDecision(RateLimitStatus.of(true, 0, 0, 0));
+
+    private final long status;
+
+    private ThrottlingDecision(long status) {
+        this.status = status;
+    }
+
+    public static ThrottlingDecision of(long status) {
+        return new ThrottlingDecision(status);
+    }
+
+    public boolean isAllowed() {
+        return RateLimitStatus.isAllowed(status);
+    }
+
+    /**
+     * @return {@link RateLimitStatus} of the decision
+     */
+    public long getStatus() {
+        return status;
+    }
+}
@@ -1,10 +1,122 @@
 package com.vlasenko.task.throttling;
 
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
 public interface ThrottlingService {
     /**
      * @return true if request is within allowed request per second (RPS) or false otherwise
      */
-    boolean isRequestAllowed(Optional<String> token);
+    default boolean isRequestAllowed(Optional<String> token) {
+        return isRequestAllowed(token, null);
+    }
+
+    /**
+     * @param client key of the client, e.g. its IP address, guests are limited by when per-client limits are on
+     * @return true if request is within allowed request per second (RPS) or false otherwise
+     */
+    default boolean isRequestAllowed(Optional<String> token, @Nullable String client) {
+        return tryAcquire(token.orElse(null), client, null, 1);
+    }
+
+
+    /**
+     * Takes {@code permits} permits at once for a request of that weight, all of them or none.
+     *
+     * @param token token of the user, null for guests
+     * @return true if the user had {@code permits} permits left in the current second
+     */
+    default boolean tryAcquire(@Nullable String token, int permits) {
+        return tryAcquire(token, null, null, permits);
+    }
+
+    /**
+     * Takes {@code permits} permits from the user and from every quota above the user, see {@link QuotaHierarchy},
+     * all of them or none.
+     *
+     * @param token    token of the user, null for guests
+     * @param client   key of the client, see {@link #isRequestAllowed(Optional, String)}
+     * @param endpoint endpoint budget the request is charged to, null for none
+     * @return true if every level had {@code permits} permits left in the current second
+     */
+    default boolean tryAcquire(@Nullable String token, @Nullable String client, @Nullable String endpoint,
+                               int permits) {
+        return RateLimitStatus.isAllowed(tryAcquireStatus(token, client, endpoint, permits));
+    }
+
+    /**
+     * Same decision as {@link #tryAcquire(String, String, String, int)}, with the limit of the user, the permits the
+     * user has left and the time until the request could be allowed again, all taken from the limiter update that
+     * made the decision.
+     *
+     * @return {@link RateLimitStatus} of the decision
+     */
+    long tryAcquireStatus(@Nullable String token, @Nullable String client, @Nullable String endpoint, int permits);
+
+    /**
+     * Decides many weighted requests in one call against the same levels as
+     * {@link #tryAcquire(String, String, String, int)}. Requests are grouped per user, and guests per client, and
+     * each group first asks for the permits of all of its requests at once; only a group whose requests do not all
+     * fit is decided request by request in order, so it gets as many of them in as its limits allow.
+     *
+     * @param tokens   tokens of the requests, null for guests
+     * @param clients  keys of the clients the requests come from, null if not known; guests are limited per
+     *                 client like in {@link #isRequestAllowed(Optional, String)}
+     * @param endpoint endpoint budget all the requests are charged to, null for none
+     * @param permits  weights of the requests
+     * @return decisions in the order of the requests
+     */
+    boolean[] tryAcquireAll(String[] tokens, @Nullable String[] clients, @Nullable String endpoint, int[] permits);
+
+    /**
+     * Same decision as {@link #isRequestAllowed(Optional)}, except that a user whose SLA is still being loaded
+     * is not throttled as a guest right away: the decision waits up to {@code maxWait} for the SLA without
+     * blocking the calling thread.
+     *
+     * @return already completed stage unless the decision waits for an SLA
+     */
+    default CompletionStage<ThrottlingDecision> isRequestAllowedAsync(Optional<String> token, Duration maxWait) {
+        return isRequestAllowedAsync(token, null, maxWait);
+    }
+
+    /**
+     * Same as {@link #isRequestAllowedAsync(Optional, Duration)} for a known client, see
+     * {@link #isRequestAllowed(Optional, String)}.
+     */
+    default CompletionStage<ThrottlingDecision> isRequestAllowedAsync(Optional<String> token, @Nullable String client,
+                                                                      Duration maxWait) {
+        return tryAcquireAsync(token.orElse(null), client, null, 1, maxWait);
+    }
+
+    /**
+     * Same decision as {@link #tryAcquire(String, String, String, int)}, waiting up to {@code maxWait} for an SLA
+     * that is still being loaded like {@link #isRequestAllowedAsync(Optional, Duration)}.
+     */
+    default CompletionStage<ThrottlingDecision> tryAcquireAsync(@Nullable String token, @Nullable String client,
+                                                                @Nullable String endpoint, int permits,
+                                                                Duration maxWait) {
+        var pending = new AtomicReference<CompletionStage<ThrottlingDecision>>();
+        var status = tryAcquireStatus(token, client, endpoint, permits, maxWait, pending, AtomicReference::set);
+        return status == RateLimitStatus.PENDING
+                ? pending.get()
+                : CompletableFuture.completedFuture(ThrottlingDecision.of(status));
+    }
+
+    /**
+     * Same decision as {@link #tryAcquireAsync(String, String, String, int, Duration)} that allocates nothing unless
+     * it has to wait.
+     *
+     * @param context passed on to {@code pending}
+     * @param pending called on the calling thread with the decision if it has to wait
+     * @return {@link RateLimitStatus} of a decision made right away, {@link RateLimitStatus#PENDING} if the decision
+     * was handed to {@code pending}
+     */
+    <C> long tryAcquireStatus(@Nullable String token, @Nullable String client, @Nullable String endpoint, int permits,
+                              Duration maxWait, C context, BiConsumer<C, CompletionStage<ThrottlingDecision>> pending);
 }
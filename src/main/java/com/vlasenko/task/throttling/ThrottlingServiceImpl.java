@@ -1,79 +1,405 @@
 package com.vlasenko.task.throttling;
 
 import com.vlasenko.task.profile.service.ProfileService;
+import com.vlasenko.task.throttling.audit.AuditLog;
+import com.vlasenko.task.throttling.limiter.CountMinSketchLimiter;
+import com.vlasenko.task.throttling.limiter.OffHeapLimiterTable;
+import com.vlasenko.task.throttling.limiter.RateLimiter;
+import com.vlasenko.task.throttling.metrics.ThrottlingMetrics;
+import com.vlasenko.task.throttling.pace.Pacer;
+import com.vlasenko.task.throttling.sla.SlaLoader;
 import com.vlasenko.task.throttling.sla.SlaService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 
-import java.time.Instant;
-import java.util.Map;
-import java.util.Optional;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 @Service
 public class ThrottlingServiceImpl implements ThrottlingService {
-    private final SlaService slaService;
+    private static final Logger log = LoggerFactory.getLogger(ThrottlingServiceImpl.class);
+
+    private final SlaLoader slaLoader;
     private final ProfileService profileService;
 
     public ThrottlingServiceImpl(@Value("${app.throttling.guest-rps:10}") int guestRPS,
-                                 SlaService slaService, ProfileService profileService) {
-        this.slaService = slaService;
+                                 LimiterFactory limiterFactory,
+                                 SlaLoader slaLoader, ProfileService profileService,
+                                 UserLimiterCache userRpsCache, ThrottlingMetrics metrics,
+                                 @Nullable OffHeapLimiterTable offHeapLimiters,
+                                 @Nullable CountMinSketchLimiter clientLimiter, QuotaHierarchy quotas,
+                                 LimitOverrides overrides, @Nullable Pacer pacer, @Nullable AuditLog auditLog) {
+        this.slaLoader = slaLoader;
         this.profileService = profileService;
-        this.guestRpsData = new RpsLimit(guestRPS);
+        this.userRpsCache = userRpsCache;
+        this.offHeapLimiters = offHeapLimiters;
+        this.clientLimiter = clientLimiter;
+        this.quotas = quotas;
+        this.pacer = pacer;
+        this.auditLog = auditLog;
+        this.metrics = metrics;
+        this.limiterFactory = limiterFactory;
+        this.guestRps = guestRPS;
+        this.guestRpsData = limiterFactory.createShared(overrides.getSnapshot().getGuestRps(guestRPS));
+        overrides.addListener(this::applyOverrides);
     }
 
-    private final RpsLimit guestRpsData;
-    private final Map<String, RpsLimit> userRpsCache = new ConcurrentHashMap<>();
-    private final Map<String, CompletableFuture<SlaService.SLA>> futures = new ConcurrentHashMap<>();
+    private final LimiterFactory limiterFactory;
+    /**
+     * Configured guest limit, {@link LimitOverrides} may replace it
+     */
+    private final int guestRps;
+    private final RateLimiter guestRpsData;
+    private final UserLimiterCache userRpsCache;
+    /**
+     * Set when users are kept off heap ({@code app.throttling.store: off-heap}), the cache only keeps users the table
+     * has no room for then
+     */
+    private final OffHeapLimiterTable offHeapLimiters;
+    /**
+     * Set when every guest client is limited on its own ({@code app.throttling.guest.per-client: true}) on top of
+     * the limit shared by all guests
+     */
+    private final CountMinSketchLimiter clientLimiter;
+    private final QuotaHierarchy quotas;
+    /**
+     * Set when some users' requests to asynchronous handlers are delayed rather than rejected
+     * ({@code app.throttling.pace.enabled: true})
+     */
+    private final Pacer pacer;
+    /**
+     * Set when decisions are recorded for investigations ({@code app.throttling.audit.enabled: true})
+     */
+    private final AuditLog auditLog;
+    private final ThrottlingMetrics metrics;
 
     @Override
-    public boolean isRequestAllowed(Optional<String> tokenOpt) {
-        if (tokenOpt.isPresent()) {
-            var token = tokenOpt.get();
-            var user = profileService.findByToken(token).orElseThrow();
-            if (userRpsCache.containsKey(user)) {
-                return userRpsCache.get(user).countAndGet() >= 0;
-            } else {
-                findOutUserRps(token, user);
+    public long tryAcquireStatus(@Nullable String token, @Nullable String client, @Nullable String endpoint,
+                                 int permits) {
+        checkPermits(permits);
+        var started = System.nanoTime();
+        // Unknown tokens are throttled as guests
+        var user = token != null ? profileService.findByToken(token) : null;
+        var endpointLimiter = quotas.getEndpoint(endpoint);
+        var status = user == null
+                ? decideForGuest(client, endpointLimiter, permits, started)
+                : decideForUser(token, user, endpointLimiter, permits, started);
+        return audit(token, user, endpoint, permits, status);
+    }
+
+    @Override
+    public boolean[] tryAcquireAll(String[] tokens, @Nullable String[] clients, @Nullable String endpoint,
+                                   int[] permits) {
+        if (tokens.length != permits.length || clients != null && clients.length != tokens.length) {
+            throw new IllegalArgumentException("Got " + tokens.length + " tokens for " + permits.length
+                    + " weights and " + (clients != null ? clients.length : 0) + " clients");
+        }
+        var started = System.nanoTime();
+        var endpointLimiter = quotas.getEndpoint(endpoint);
+        var users = new LinkedHashMap<String, Group>();
+        // Keyed by client, guests without one under null
+        var guests = new LinkedHashMap<String, Group>();
+        // Index of the next request of the same group, -1 for the last one
+        var next = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            checkPermits(permits[i]);
+            var token = tokens[i];
+            var user = token != null ? profileService.findByToken(token) : null;
+            var client = user == null && clients != null ? clients[i] : null;
+            var group = user != null
+                    ? users.computeIfAbsent(user, key -> new Group(token, key, null))
+                    : guests.computeIfAbsent(client, key -> new Group(token, null, key));
+            group.add(i, permits[i], next);
+        }
+
+        var allowed = new boolean[tokens.length];
+        for (var groups : List.of(users.values(), guests.values())) {
+            for (var group : groups) {
+                decideGroup(group, tokens, endpoint, endpointLimiter, permits, next, allowed, started);
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * Asks once for the permits of all requests of the group, and for each request in order if they do not all fit.
+     */
+    private void decideGroup(Group group, String[] tokens, @Nullable String endpoint,
+                             @Nullable RateLimiter endpointLimiter, int[] permits, int[] next, boolean[] allowed,
+                             long started) {
+        var total = (int) Math.min(Integer.MAX_VALUE, group.permits);
+        var status = decide(group, group.token, endpointLimiter, total, started);
+        if (RateLimitStatus.isAllowed(status) || group.first == group.last) {
+            audit(group.token, group.user, endpoint, total, status);
+            for (int i = group.first; i >= 0; i = next[i]) {
+                allowed[i] = RateLimitStatus.isAllowed(status);
+            }
+            return;
+        }
+        for (int i = group.first; i >= 0; i = next[i]) {
+            status = decide(group, tokens[i], endpointLimiter, permits[i], started);
+            allowed[i] = RateLimitStatus.isAllowed(audit(tokens[i], group.user, endpoint, permits[i], status));
+        }
+    }
+
+    private long decide(Group group, @Nullable String token, @Nullable RateLimiter endpointLimiter, int permits,
+                        long started) {
+        return group.user == null
+                ? decideForGuest(group.client, endpointLimiter, permits, started)
+                : decideForUser(token, group.user, endpointLimiter, permits, started);
+    }
+
+    @Override
+    public <C> long tryAcquireStatus(@Nullable String token, @Nullable String client, @Nullable String endpoint,
+                                     int permits, Duration maxWait, C context,
+                                     BiConsumer<C, CompletionStage<ThrottlingDecision>> pending) {
+        checkPermits(permits);
+        var started = System.nanoTime();
+        var user = token != null ? profileService.findByToken(token) : null;
+        var endpointLimiter = quotas.getEndpoint(endpoint);
+        if (user == null) {
+            return audit(token, null, endpoint, permits, decideForGuest(client, endpointLimiter, permits, started));
+        }
+        if ((offHeapLimiters == null || offHeapLimiters.find(user) < 0) && userRpsCache.getIfPresent(user) == null) {
+            var load = findOutUserRps(token, user);
+            if (!load.isDone() && !maxWait.isZero()) {
+                var decision = load.copy()
+                        .completeOnTimeout(null, maxWait.toNanos(), TimeUnit.NANOSECONDS)
+                        .handle((sla, ex) -> {
+                            if (sla != null) {
+                                store(sla);
+                            }
+                            return sla;
+                        })
+                        .thenCompose(sla -> decideOrPace(token, user, endpointLimiter, permits, System.nanoTime()));
+                pending.accept(context, audit(token, user, endpoint, permits, decision));
+                return RateLimitStatus.PENDING;
             }
         }
-        return guestRpsData.countAndGet() >= 0;
+        var status = decideForUser(token, user, endpointLimiter, permits, started);
+        if (!isPaced(user, status)) {
+            return audit(token, user, endpoint, permits, status);
+        }
+        pending.accept(context, audit(token, user, endpoint, permits, pace(token, user, endpointLimiter, permits,
+                status)));
+        return RateLimitStatus.PENDING;
+    }
+
+    private CompletionStage<ThrottlingDecision> decideOrPace(String token, String user, @Nullable RateLimiter endpoint,
+                                                             int permits, long started) {
+        var status = decideForUser(token, user, endpoint, permits, started);
+        return isPaced(user, status)
+                ? pace(token, user, endpoint, permits, status)
+                : CompletableFuture.completedFuture(ThrottlingDecision.of(status));
+    }
+
+    /**
+     * @return true if the request was rejected and has to wait for a permit instead
+     */
+    private boolean isPaced(String user, long status) {
+        return !RateLimitStatus.isAllowed(status) && pacer != null && pacer.isPaced(user);
+    }
+
+    private CompletionStage<ThrottlingDecision> pace(String token, String user, @Nullable RateLimiter endpoint,
+                                                     int permits, long rejected) {
+        return pacer.await(() -> decideForUser(token, user, endpoint, permits, System.nanoTime()),
+                () -> getWaitNanos(user, permits), rejected);
+    }
+
+    /**
+     * @return estimated time until the user's limiter has the permits, users kept off heap have fixed windows
+     */
+    private long getWaitNanos(String user, int permits) {
+        if (offHeapLimiters != null && offHeapLimiters.find(user) >= 0) {
+            return offHeapLimiters.getWaitNanos();
+        }
+        var userLimit = userRpsCache.getIfPresent(user);
+        return userLimit != null ? userLimit.getLimiter().getWaitNanos(permits) : 0;
+    }
+
+    private long decideForUser(String token, String user, @Nullable RateLimiter endpoint, int permits,
+                               long started) {
+        var slot = offHeapLimiters != null ? offHeapLimiters.find(user) : -1;
+        return slot >= 0
+                ? decideOffHeap(token, user, slot, endpoint, permits, started)
+                : decideForUser(token, user, userRpsCache.getIfPresent(user), endpoint, permits, started);
+    }
+
+    private long decideForUser(String token, String user, UserLimiterCache.UserLimit userLimit,
+                               @Nullable RateLimiter endpoint, int permits, long started) {
+        if (userLimit == null) {
+            findOutUserRps(token, user);
+            return decide(guestRpsData, null, endpoint, ThrottlingMetrics.RequestClass.PENDING_SLA, permits,
+                    started);
+        }
+        if (userRpsCache.startRefresh(userLimit)) {
+            findOutUserRps(token, user);
+        }
+        return decide(userLimit.getLimiter(), quotas.getOrganisation(userLimit.getSla()), endpoint,
+                ThrottlingMetrics.RequestClass.USER, permits, started);
+    }
+
+    /**
+     * Guests rejected by their per-client limit are told that limit, its windows are per second.
+     */
+    private long decideForGuest(@Nullable String client, @Nullable RateLimiter endpoint, int permits,
+                                long started) {
+        var perClient = clientLimiter != null && client != null;
+        if (perClient && clientLimiter.tryAcquire(client, permits) < 0) {
+            metrics.recordDecision(ThrottlingMetrics.RequestClass.GUEST, false, System.nanoTime() - started);
+            return RateLimitStatus.of(false, clientLimiter.getLimit(), 0, 0);
+        }
+        var status = decide(guestRpsData, null, endpoint, ThrottlingMetrics.RequestClass.GUEST, permits, started);
+        if (!RateLimitStatus.isAllowed(status) && perClient) {
+            clientLimiter.release(client, permits);
+        }
+        return status;
+    }
+
+    /**
+     * Users kept off heap have no SLA kept, their slot holds what of it the organisation level needs.
+     */
+    private long decideOffHeap(String token, String user, int slot, @Nullable RateLimiter endpoint, int permits,
+                               long started) {
+        if (offHeapLimiters.startRefresh(slot)) {
+            findOutUserRps(token, user);
+        }
+        var organisation = quotas.getOrganisation(offHeapLimiters.getOrganisation(slot),
+                offHeapLimiters.getOrganisationRps(slot));
+        var status = offHeapLimiters.tryAcquireStatus(slot, permits);
+        if (RateLimitStatus.isAllowed(status) && !quotas.tryAcquire(null, organisation, endpoint, permits)) {
+            offHeapLimiters.release(slot, permits);
+            status = RateLimitStatus.rejected(status);
+        }
+        metrics.recordDecision(ThrottlingMetrics.RequestClass.USER, RateLimitStatus.isAllowed(status),
+                System.nanoTime() - started);
+        return status;
+    }
+
+    /**
+     * @param limiter limiter of the user, the status is of it
+     */
+    private long decide(RateLimiter limiter, @Nullable RateLimiter organisation, @Nullable RateLimiter endpoint,
+                        ThrottlingMetrics.RequestClass requestClass, int permits, long started) {
+        var status = quotas.tryAcquireStatus(limiter, organisation, endpoint, permits);
+        metrics.recordDecision(requestClass, RateLimitStatus.isAllowed(status), System.nanoTime() - started);
+        return status;
+    }
+
+    private long audit(@Nullable String token, @Nullable String user, @Nullable String endpoint, int permits,
+                       long status) {
+        if (auditLog != null) {
+            auditLog.record(token, user, endpoint, permits, RateLimitStatus.isAllowed(status));
+        }
+        return status;
+    }
+
+    /**
+     * Decisions still pending, e.g. of paced users, are recorded once they are made.
+     */
+    private CompletionStage<ThrottlingDecision> audit(@Nullable String token, String user, @Nullable String endpoint,
+                                                      int permits, CompletionStage<ThrottlingDecision> decision) {
+        if (auditLog != null) {
+            decision.thenAccept(result -> auditLog.record(token, user, endpoint, permits, result.isAllowed()));
+        }
+        return decision;
+    }
+
+    private CompletableFuture<SlaService.SLA> findOutUserRps(String token, String user) {
+        return slaLoader.load(token, user, (sla, ex) -> {
+            if (sla != null) {
+                store(sla);
+                return;
+            }
+            if (offHeapLimiters != null) {
+                offHeapLimiters.refreshFailed(user);
+            }
+            userRpsCache.refreshFailed(user);
+        });
     }
 
-    private void findOutUserRps(String token, String user) {
-        if (!futures.containsKey(user)) {
-            var future = slaService.getSlaByToken(token);
-            futures.put(user, future);
-            future.whenComplete((sla, ex) -> {
-                userRpsCache.put(sla.getUser(), new RpsLimit(sla.getRps()));
-                futures.remove(sla.getUser());
-            });
+    /**
+     * Users the off-heap table has no room for are cached on heap instead, so that they are not throttled as guests
+     * reloading their SLA with every request.
+     */
+    private void store(SlaService.SLA sla) {
+        quotas.update(sla);
+        if (offHeapLimiters != null) {
+            if (offHeapLimiters.put(sla.getUser(), limiterFactory.getRps(sla), QuotaHierarchy.getOrganisationKey(sla),
+                    sla.getOrganisationRps()) >= 0) {
+                userRpsCache.invalidate(sla.getUser());
+                return;
+            }
+            metrics.recordOffHeapOverflow();
+            log.warn("Off-heap limiter table has no room for user {}, keeping it on heap", sla.getUser());
         }
+        userRpsCache.put(sla, limiterFactory);
     }
 
-    private static class RpsLimit {
-        private final int limit;
-        private final AtomicInteger count;
-        private long second = Instant.now().getEpochSecond();
+    /**
+     * Resizes limiters whose limits were overridden, or are not any more, keeping their current window counts.
+     * Users kept off heap have no SLA to fall back to, they reload it with their next request instead.
+     */
+    private void applyOverrides(LimitOverrides.Snapshot previous, LimitOverrides.Snapshot current) {
+        guestRpsData.resize(current.getGuestRps(guestRps));
+        for (var user : current.getChangedUsers(previous)) {
+            userRpsCache.resize(user, limiterFactory::getRps);
+            if (offHeapLimiters != null) {
+                if (current.hasUser(user)) {
+                    if (offHeapLimiters.find(user) >= 0) {
+                        offHeapLimiters.put(user, current.getRps(user));
+                    }
+                } else {
+                    offHeapLimiters.invalidate(user);
+                }
+            }
+        }
+    }
 
-        public RpsLimit(int limit) {
-            this.limit = limit;
-            this.count = new AtomicInteger(limit);
+    private static void checkPermits(int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("Permits must be positive, got " + permits);
         }
+    }
 
-        public synchronized int countAndGet() {
-            checkTime();
-            return count.decrementAndGet();
+    /**
+     * Requests of one user, or of one guest client, in a {@link #tryAcquireAll(String[], String[], String, int[])}
+     * call
+     */
+    private static class Group {
+        private final String token;
+        private final String user;
+        private final String client;
+        private long permits;
+        private int first = -1;
+        private int last = -1;
+
+        private Group(String token, @Nullable String user, @Nullable String client) {
+            this.token = token;
+            this.user = user;
+            this.client = client;
         }
 
-        private void checkTime() {
-            var now = Instant.now().getEpochSecond();
-            if (second != now) {
-                second = now;
-                count.set(limit);
+        /**
+         * Links the request after the last one of the group
+         */
+        private void add(int request, int permits, int[] next) {
+            if (first < 0) {
+                first = request;
+            } else {
+                next[last] = request;
             }
+            next[request] = -1;
+            last = request;
+            this.permits += permits;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,189 @@
+package com.vlasenko.task.throttling;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.vlasenko.task.throttling.limiter.RateLimiter;
+import com.vlasenko.task.throttling.sla.SlaService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Size-bounded (W-TinyLFU) cache of user limiters that expires users not seen for a while.
+ * Entries older than {@code refreshAfter} are reported as due for refresh once, so the caller can reload
+ * the SLA in background while the user keeps being served by the cached limiter.
+ */
+@Component
+public class UserLimiterCache {
+    private final Cache<String, UserLimit> cache;
+    private final long refreshAfterNanos;
+    private final Duration expireAfterAccess;
+    /**
+     * Users restored from a snapshot that were not requested since, each moves to the cache on its first request.
+     * Filling a plain map is several times faster than filling the cache, which keeps restores of large snapshots
+     * short. Null when there are none.
+     */
+    private volatile Map<String, UserLimit> restored;
+
+    public UserLimiterCache(@Value("${app.throttling.cache.maximum-size:1000000}") long maximumSize,
+                            @Value("${app.throttling.cache.expire-after-access:10m}") Duration expireAfterAccess,
+                            @Value("${app.throttling.cache.refresh-after:5m}") Duration refreshAfter) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(expireAfterAccess)
+                .recordStats()
+                .build();
+        this.refreshAfterNanos = refreshAfter.toNanos();
+        this.expireAfterAccess = expireAfterAccess;
+    }
+
+    public UserLimit getIfPresent(String user) {
+        var userLimit = cache.getIfPresent(user);
+        var restored = this.restored;
+        if (userLimit == null && restored != null) {
+            userLimit = restored.remove(user);
+            if (userLimit != null) {
+                var current = cache.asMap().putIfAbsent(user, userLimit);
+                return current != null ? current : userLimit;
+            }
+        }
+        return userLimit;
+    }
+
+    /**
+     * @return true if the entry is old enough to be reloaded and no other caller has started reloading it yet
+     */
+    public boolean startRefresh(UserLimit userLimit) {
+        return System.nanoTime() - userLimit.loadedAt > refreshAfterNanos
+                && userLimit.refreshing.compareAndSet(false, true);
+    }
+
+    /**
+     * Caches a freshly loaded SLA. The limiter of a cached user is kept so that its current window counts survive,
+     * resized if the limit has changed. A new limiter is only created if the SLA needs a different kind of limiter.
+     */
+    public void put(SlaService.SLA sla, LimiterFactory limiterFactory) {
+        cache.asMap().compute(sla.getUser(), (user, current) -> {
+            if (current != null && current.matches(sla)) {
+                current.loadedAt = System.nanoTime();
+                current.refreshing.set(false);
+                return current;
+            }
+            var rps = limiterFactory.getRps(sla);
+            if (current != null && limiterFactory.fits(current.limiter, sla, rps)) {
+                current.limiter.resize(rps);
+                return new UserLimit(sla, current.limiter, System.nanoTime());
+            }
+            return new UserLimit(sla, limiterFactory.create(sla), System.nanoTime());
+        });
+    }
+
+    /**
+     * Resizes the limiter of the user in place if the user is cached.
+     *
+     * @param limit limit of the user with the SLA
+     */
+    public void resize(String user, ToIntFunction<SlaService.SLA> limit) {
+        var userLimit = cache.asMap().get(user);
+        var restored = this.restored;
+        if (userLimit == null && restored != null) {
+            userLimit = restored.get(user);
+        }
+        if (userLimit != null) {
+            userLimit.limiter.resize(limit.applyAsInt(userLimit.sla));
+        }
+    }
+
+    /**
+     * Serves users restored from a snapshot until they are requested, or expire unrequested.
+     */
+    void restore(Map<String, UserLimit> users) {
+        restored = users;
+        CompletableFuture.delayedExecutor(expireAfterAccess.toNanos(), TimeUnit.NANOSECONDS)
+                .execute(() -> restored = null);
+    }
+
+    /**
+     * Walks the cached users without blocking decisions, users cached meanwhile may be missed.
+     */
+    public void forEach(Consumer<UserLimit> action) {
+        cache.asMap().values().forEach(action);
+        var restored = this.restored;
+        if (restored != null) {
+            restored.values().forEach(action);
+        }
+    }
+
+    public void invalidate(String user) {
+        cache.invalidate(user);
+        var restored = this.restored;
+        if (restored != null) {
+            restored.remove(user);
+        }
+    }
+
+    /**
+     * Lets the next request retry a reload that did not produce an SLA.
+     */
+    public void refreshFailed(String user) {
+        var userLimit = cache.getIfPresent(user);
+        if (userLimit != null) {
+            userLimit.refreshing.set(false);
+        }
+    }
+
+    /**
+     * @return hit, miss and eviction counts
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long getEstimatedSize() {
+        var restored = this.restored;
+        return cache.estimatedSize() + (restored != null ? restored.size() : 0);
+    }
+
+    public static class UserLimit {
+        private final SlaService.SLA sla;
+        private final RateLimiter limiter;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile long loadedAt;
+
+        UserLimit(SlaService.SLA sla, RateLimiter limiter, long loadedAt) {
+            this.sla = sla;
+            this.limiter = limiter;
+            this.loadedAt = loadedAt;
+        }
+
+        public SlaService.SLA getSla() {
+            return sla;
+        }
+
+        public RateLimiter getLimiter() {
+            return limiter;
+        }
+
+        /**
+         * @return {@link System#nanoTime()} of the SLA load
+         */
+        public long getLoadedAt() {
+            return loadedAt;
+        }
+
+        private boolean matches(SlaService.SLA other) {
+            return sla.getRps() == other.getRps() && sla.getAlgorithm() == other.getAlgorithm()
+                    && Objects.equals(sla.getOrganisation(), other.getOrganisation())
+                    && sla.getOrganisationRps() == other.getOrganisationRps();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.vlasenko.task.throttling;
+
+import com.vlasenko.task.throttling.limiter.FixedWindowLimiter;
+import com.vlasenko.task.throttling.limiter.GcraLimiter;
+import com.vlasenko.task.throttling.limiter.LimiterAlgorithm;
+import com.vlasenko.task.throttling.limiter.RateLimiter;
+import com.vlasenko.task.throttling.limiter.SlidingWindowLimiter;
+import com.vlasenko.task.throttling.limiter.StripedLimiter;
+import com.vlasenko.task.throttling.limiter.TokenBucketLimiter;
+import com.vlasenko.task.throttling.sla.SlaService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Carries cached SLAs and limiter state over restarts, so that users are not treated as guests and do not get
+ * a fresh window after a deploy. The cache is written to a local file in background every {@code interval} and
+ * on shutdown, and restored while the context starts, before the application reports ready.
+ * <pre>
+ * header: int magic, int version, long epoch millis of the snapshot, int entry count
+ * entry:  unsigned short length, UTF-8 user id, int rps, byte SLA algorithm (-1 for none),
+ *         byte limiter class (-1 for one without state), long limiter state, int SLA age in millis,
+ *         unsigned short length, UTF-8 organisation (empty for none), int organisation rps
+ * </pre>
+ * Limiter state is only restored into a limiter of the same class, e.g. not after the algorithm was changed.
+ * The heap cache is snapshotted only, the off-heap store is not.
+ */
+@Component
+public class UserLimiterSnapshotter {
+    private static final Logger log = LoggerFactory.getLogger(UserLimiterSnapshotter.class);
+    private static final int MAGIC = 0x554C5353;
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 20;
+    private static final int MAX_ENTRY_SIZE = 2 + 0xFFFF + 4 + 1 + 1 + 8 + 4 + 2 + 0xFFFF + 4;
+    private static final List<Class<? extends RateLimiter>> LIMITER_CLASSES = List.of(FixedWindowLimiter.class,
+            TokenBucketLimiter.class, SlidingWindowLimiter.class, GcraLimiter.class, StripedLimiter.class);
+
+    private final UserLimiterCache cache;
+    private final LimiterFactory limiterFactory;
+    private final Path file;
+    private final ScheduledExecutorService executor;
+
+    public UserLimiterSnapshotter(UserLimiterCache cache, LimiterFactory limiterFactory,
+                                  @Value("${app.throttling.snapshot.file:}") String file,
+                                  @Value("${app.throttling.snapshot.interval:30s}") Duration interval) {
+        this.cache = cache;
+        this.limiterFactory = limiterFactory;
+        if (file.isEmpty()) {
+            this.file = null;
+            this.executor = null;
+            return;
+        }
+        this.file = Path.of(file);
+        try {
+            restore();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot restore snapshot {}, starting with an empty cache", file, e);
+        }
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "limiter-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::writeQuietly, interval.toMillis(), interval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return entries restored
+     */
+    int restore() throws IOException {
+        ByteBuffer buffer;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a limiter snapshot: " + file);
+        }
+        var age = Math.max(0, System.currentTimeMillis() - buffer.getLong());
+        var count = buffer.getInt();
+        var algorithms = LimiterAlgorithm.values();
+        var bytes = new byte[0xFFFF];
+        var users = new ConcurrentHashMap<String, UserLimiterCache.UserLimit>(count * 4 / 3 + 1);
+        var now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            var length = buffer.getShort() & 0xFFFF;
+            buffer.get(bytes, 0, length);
+            var user = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            var rps = buffer.getInt();
+            var algorithm = buffer.get();
+            var limiterClass = buffer.get();
+            var state = buffer.getLong();
+            var slaAge = buffer.getInt() + age;
+            length = buffer.getShort() & 0xFFFF;
+            buffer.get(bytes, 0, length);
+            var organisation = length > 0 ? new String(bytes, 0, length, StandardCharsets.UTF_8) : null;
+            var organisationRps = buffer.getInt();
+
+            var sla = new SlaService.SLA(user, rps, algorithm >= 0 ? algorithms[algorithm] : null,
+                    organisation, organisationRps);
+            var limiter = limiterFactory.create(sla);
+            if (limiterClass >= 0 && limiter.getClass() == LIMITER_CLASSES.get(limiterClass)) {
+                limiter.restoreState(state, age);
+            }
+            users.put(user, new UserLimiterCache.UserLimit(sla, limiter, now - TimeUnit.MILLISECONDS.toNanos(slaAge)));
+        }
+        cache.restore(users);
+        return count;
+    }
+
+    /**
+     * Writes a new snapshot next to the file and moves it into place.
+     *
+     * @return entries written
+     */
+    public int write() throws IOException {
+        var temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (var channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            var buffer = ByteBuffer.allocateDirect(1 << 20);
+            var takenAt = System.currentTimeMillis();
+            var now = System.nanoTime();
+            var count = new int[1];
+            // The header is written last, once the entries are counted
+            channel.position(HEADER_SIZE);
+            cache.forEach(userLimit -> {
+                if (buffer.remaining() < MAX_ENTRY_SIZE) {
+                    flush(channel, buffer);
+                }
+                var sla = userLimit.getSla();
+                var user = sla.getUser().getBytes(StandardCharsets.UTF_8);
+                var organisation = sla.getOrganisation() != null
+                        ? sla.getOrganisation().getBytes(StandardCharsets.UTF_8) : new byte[0];
+                if (user.length > 0xFFFF || organisation.length > 0xFFFF) {
+                    return;
+                }
+                var limiter = userLimit.getLimiter();
+                var state = limiter.exportState();
+                buffer.putShort((short) user.length)
+                        .put(user)
+                        .putInt(sla.getRps())
+                        .put((byte) (sla.getAlgorithm() != null ? sla.getAlgorithm().ordinal() : -1))
+                        .put((byte) (state != RateLimiter.NO_STATE ? LIMITER_CLASSES.indexOf(limiter.getClass()) : -1))
+                        .putLong(state)
+                        .putInt((int) Math.min(Integer.MAX_VALUE,
+                                TimeUnit.NANOSECONDS.toMillis(now - userLimit.getLoadedAt())))
+                        .putShort((short) organisation.length)
+                        .put(organisation)
+                        .putInt(sla.getOrganisationRps());
+                count[0]++;
+            });
+            flush(channel, buffer);
+
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(takenAt).putInt(count[0]).flip();
+            while (buffer.hasRemaining()) {
+                // Positions in the buffer are positions in the file here
+                channel.write(buffer, buffer.position());
+            }
+            channel.force(false);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return count[0];
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) {
+        try {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot write snapshot {}", file, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            writeQuietly();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.vlasenko.task.throttling.audit;
+
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Throttling decision read back from an {@link AuditLog} file. Files are a header followed by fixed-size events:
+ * <pre>
+ * header: int magic, int version, int event size
+ * event:  long epoch millis, long token hash (0 for none), int permits, byte flags (1 for allowed),
+ *         byte user length, byte endpoint length, byte reserved,
+ *         UTF-8 user id (empty for guests) and UTF-8 endpoint, each padded to 52 bytes
+ * </pre>
+ * Longer user ids and endpoints are cut at 52 bytes.
+ */
+public class AuditEvent {
+    static final int SIZE = 128;
+    static final int HEADER_SIZE = 12;
+    private static final int MAGIC = 0x41554454;
+    private static final int VERSION = 1;
+    private static final int MAX_STRING = 52;
+    private static final int USER = 24;
+    private static final int ENDPOINT = USER + MAX_STRING;
+    private static final byte ALLOWED = 1;
+
+    private final long timestamp;
+    private final long tokenHash;
+    private final String user;
+    private final String endpoint;
+    private final int permits;
+    private final boolean allowed;
+
+    private AuditEvent(long timestamp, long tokenHash, String user, String endpoint, int permits, boolean allowed) {
+        this.timestamp = timestamp;
+        this.tokenHash = tokenHash;
+        this.user = user;
+        this.endpoint = endpoint;
+        this.permits = permits;
+        this.allowed = allowed;
+    }
+
+    public static List<AuditEvent> read(Path file) throws IOException {
+        var buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                || buffer.getInt() != SIZE) {
+            throw new IOException("Not an audit file: " + file);
+        }
+        var events = new ArrayList<AuditEvent>(buffer.remaining() / SIZE);
+        for (int offset = HEADER_SIZE; offset + SIZE <= buffer.limit(); offset += SIZE) {
+            var flags = buffer.get(offset + 20);
+            events.add(new AuditEvent(buffer.getLong(offset), buffer.getLong(offset + 8),
+                    decode(buffer, offset + USER, buffer.get(offset + 21)),
+                    decode(buffer, offset + ENDPOINT, buffer.get(offset + 22)),
+                    buffer.getInt(offset + 16), (flags & ALLOWED) != 0));
+        }
+        return events;
+    }
+
+    static void encodeHeader(ByteBuffer buffer) {
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(SIZE).flip();
+    }
+
+    /**
+     * Writes an event at {@code offset} with absolute puts, so threads can fill different slots of one buffer.
+     */
+    static void encode(ByteBuffer buffer, int offset, long timestamp, long tokenHash, @Nullable String user,
+                       @Nullable String endpoint, int permits, boolean allowed) {
+        buffer.putLong(offset, timestamp)
+                .putLong(offset + 8, tokenHash)
+                .putInt(offset + 16, permits)
+                .put(offset + 20, allowed ? ALLOWED : 0)
+                .put(offset + 21, (byte) encode(buffer, offset + USER, user))
+                .put(offset + 22, (byte) encode(buffer, offset + ENDPOINT, endpoint))
+                .put(offset + 23, (byte) 0);
+    }
+
+    /**
+     * Copies ASCII strings char by char, so the common case allocates nothing.
+     *
+     * @return bytes written
+     */
+    private static int encode(ByteBuffer buffer, int offset, @Nullable String value) {
+        if (value == null) {
+            return 0;
+        }
+        var length = Math.min(value.length(), MAX_STRING);
+        for (int i = 0; i < length; i++) {
+            var c = value.charAt(i);
+            if (c >= 0x80) {
+                var bytes = value.getBytes(StandardCharsets.UTF_8);
+                length = Math.min(bytes.length, MAX_STRING);
+                for (int j = 0; j < length; j++) {
+                    buffer.put(offset + j, bytes[j]);
+                }
+                return length;
+            }
+            buffer.put(offset + i, (byte) c);
+        }
+        return length;
+    }
+
+    @Nullable
+    private static String decode(ByteBuffer buffer, int offset, int length) {
+        if (length == 0) {
+            return null;
+        }
+        var bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return epoch millis of the decision
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return hash of the token, 0 for requests without one
+     */
+    public long getTokenHash() {
+        return tokenHash;
+    }
+
+    /**
+     * @return user id, null for guests
+     */
+    @Nullable
+    public String getUser() {
+        return user;
+    }
+
+    @Nullable
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    public boolean isAllowed() {
+        return allowed;
+    }
+}
@@ -0,0 +1,266 @@
+package com.vlasenko.task.throttling.audit;
+
+import com.vlasenko.task.throttling.Hashes;
+import com.vlasenko.task.throttling.clock.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * Record of throttling decisions for abuse investigations: every rejection and a sample of allowed requests.
+ * Request threads publish fixed-size events into a preallocated ring buffer in direct memory: a slot is claimed with
+ * a CAS on the head sequence, filled, and published by storing its sequence. A single consumer thread copies
+ * published events into a batch and appends it to the current file through a {@link FileChannel}. When the ring is
+ * full, events are dropped and counted rather than making request threads wait.
+ * <p>
+ * Files are named {@code audit-<index>.log} and hold at most {@code file-size} bytes, only the {@code max-files}
+ * newest are kept. See {@link AuditEvent} for the layout.
+ */
+@Component
+@ConditionalOnProperty(name = "app.throttling.audit.enabled", havingValue = "true")
+public class AuditLog {
+    private static final Logger log = LoggerFactory.getLogger(AuditLog.class);
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int BATCH_EVENTS = 512;
+
+    private final Clock clock;
+    private final Path directory;
+    private final double allowSampleRate;
+    private final int eventsPerFile;
+    private final int maxFiles;
+
+    private final ByteBuffer slots;
+    private final AtomicLongArray published;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+
+    private final Thread consumer;
+    private volatile boolean running = true;
+    private final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_EVENTS * AuditEvent.SIZE);
+    private final ByteBuffer view;
+    private FileChannel file;
+    private int fileIndex;
+    private int eventsInFile;
+    private boolean failing;
+
+    /**
+     * @param bufferSize      events the ring buffer holds, rounded up to a power of two
+     * @param allowSampleRate share of allowed requests recorded, rejections are always recorded
+     */
+    public AuditLog(Clock clock,
+                    @Value("${app.throttling.audit.directory:audit}") String directory,
+                    @Value("${app.throttling.audit.buffer-size:65536}") int bufferSize,
+                    @Value("${app.throttling.audit.allow-sample-rate:0.01}") double allowSampleRate,
+                    @Value("${app.throttling.audit.file-size:64MB}") DataSize fileSize,
+                    @Value("${app.throttling.audit.max-files:10}") int maxFiles) throws IOException {
+        var capacity = Integer.highestOneBit(Math.max(2, bufferSize) * 2 - 1);
+        this.clock = clock;
+        this.directory = Files.createDirectories(Path.of(directory));
+        this.allowSampleRate = allowSampleRate;
+        this.eventsPerFile = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                (fileSize.toBytes() - AuditEvent.HEADER_SIZE) / AuditEvent.SIZE));
+        this.maxFiles = Math.max(1, maxFiles);
+        this.slots = ByteBuffer.allocateDirect(capacity * AuditEvent.SIZE);
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        this.mask = capacity - 1;
+        this.view = slots.duplicate();
+        this.consumer = new Thread(this::consume, "throttling-audit");
+        consumer.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void start() {
+        consumer.start();
+    }
+
+    /**
+     * Publishes the decision if it is recorded at all, never blocks.
+     *
+     * @param user     user the token belongs to, null for guests
+     * @param endpoint endpoint budget the request was charged to
+     */
+    public void record(@Nullable String token, @Nullable String user, @Nullable String endpoint, int permits,
+                       boolean allowed) {
+        if (allowed && (allowSampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= allowSampleRate)) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail > mask) {
+                dropped.increment();
+                return;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+
+        var slot = (int) sequence & mask;
+        AuditEvent.encode(slots, slot * AuditEvent.SIZE, clock.millis(), token != null ? Hashes.key(token) : 0, user,
+                endpoint, permits, allowed);
+        published.set(slot, sequence);
+    }
+
+    /**
+     * @return events dropped because the ring buffer was full or the file could not be written
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * Writes the events published so far and closes the file.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(consumer);
+        consumer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    private void consume() {
+        while (running) {
+            if (drain() == 0) {
+                write();
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+        }
+        drain();
+        write();
+        close();
+    }
+
+    /**
+     * Moves published events to the batch, writing the batch out whenever it fills up.
+     *
+     * @return events moved
+     */
+    private int drain() {
+        var sequence = tail;
+        var count = 0;
+        while (published.get((int) sequence & mask) == sequence) {
+            if (!batch.hasRemaining()) {
+                write();
+            }
+            var offset = ((int) sequence & mask) * AuditEvent.SIZE;
+            batch.put(view.clear().position(offset).limit(offset + AuditEvent.SIZE));
+            tail = ++sequence;
+            count++;
+        }
+        return count;
+    }
+
+    private void write() {
+        batch.flip();
+        var events = batch.remaining() / AuditEvent.SIZE;
+        try {
+            while (batch.hasRemaining()) {
+                if (file == null || eventsInFile == eventsPerFile) {
+                    rotate();
+                }
+                var count = Math.min(batch.remaining() / AuditEvent.SIZE, eventsPerFile - eventsInFile);
+                var limit = batch.limit();
+                batch.limit(batch.position() + count * AuditEvent.SIZE);
+                while (batch.hasRemaining()) {
+                    file.write(batch);
+                }
+                batch.limit(limit);
+                eventsInFile += count;
+                written.add(count);
+                events -= count;
+            }
+            failing = false;
+        } catch (IOException | RuntimeException e) {
+            dropped.add(events);
+            if (!failing) {
+                log.warn("Cannot write audit events to {}, dropping them", directory, e);
+                failing = true;
+            }
+            close();
+        }
+        batch.clear();
+    }
+
+    private void rotate() throws IOException {
+        if (file == null) {
+            fileIndex = files().stream().mapToInt(AuditLog::index).max().orElse(0);
+        }
+        close();
+        var path = directory.resolve(String.format("audit-%08d.log", ++fileIndex));
+        file = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        var header = ByteBuffer.allocate(AuditEvent.HEADER_SIZE);
+        AuditEvent.encodeHeader(header);
+        while (header.hasRemaining()) {
+            file.write(header);
+        }
+        eventsInFile = 0;
+
+        var files = files();
+        for (int i = 0; i < files.size() - maxFiles; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+
+    private void close() {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            log.warn("Cannot close audit file in {}", directory, e);
+        }
+        file = null;
+    }
+
+    /**
+     * @return audit files in the directory, oldest first
+     */
+    private List<Path> files() throws IOException {
+        try (var paths = Files.list(directory)) {
+            return paths.filter(path -> index(path) > 0).sorted().collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    private static int index(Path path) {
+        var name = path.getFileName().toString();
+        if (!name.startsWith("audit-") || !name.endsWith(".log")) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(name.substring(6, name.length() - 4));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.vlasenko.task.throttling.clock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time source of the limiters. Readings are monotonic: they start at the wall clock time of the process start and
+ * then follow {@link System#nanoTime()}, so wall clock adjustments (NTP) neither reset nor extend windows, while
+ * windows are still epoch seconds that survive restarts and agree between nodes.
+ */
+public interface Clock {
+    /**
+     * Reads {@link System#nanoTime()} on every call
+     */
+    Clock SYSTEM = new SystemClock();
+
+    /**
+     * @return milliseconds since the epoch, never less than a previous reading
+     */
+    long millis();
+
+    /**
+     * @return current epoch second, the window of per-second limiters
+     */
+    default int seconds() {
+        return (int) (millis() / 1000);
+    }
+
+    /**
+     * @return nanoseconds until the next per-second window starts
+     */
+    default long nanosToNextSecond() {
+        return nanosToNextSecond(millis());
+    }
+
+    /**
+     * @param millis a reading of {@link #millis()}
+     * @return nanoseconds from the reading until the next per-second window starts
+     */
+    static long nanosToNextSecond(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(1000 - millis % 1000);
+    }
+}
@@ -0,0 +1,45 @@
+package com.vlasenko.task.throttling.clock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link Clock#SYSTEM} read by a background thread every {@code resolution} and published through a volatile field,
+ * so a reading on the decision path is a plain memory read. Readings lag behind by up to the resolution.
+ */
+@Component
+public class CoarseClock implements Clock {
+    private final long resolutionNanos;
+    private final Thread ticker;
+    private volatile long millis = SYSTEM.millis();
+    private volatile boolean running = true;
+
+    public CoarseClock(@Value("${app.throttling.clock.resolution:1ms}") Duration resolution) {
+        this.resolutionNanos = Math.max(1, resolution.toNanos());
+        this.ticker = new Thread(this::tick, "coarse-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(ticker);
+    }
+
+    private void tick() {
+        while (running) {
+            LockSupport.parkNanos(this, resolutionNanos);
+            millis = SYSTEM.millis();
+        }
+    }
+}
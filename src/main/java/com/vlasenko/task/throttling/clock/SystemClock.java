@@ -0,0 +1,12 @@
+package com.vlasenko.task.throttling.clock;
+
+import java.util.concurrent.TimeUnit;
+
+class SystemClock implements Clock {
+    private static final long ORIGIN = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+
+    @Override
+    public long millis() {
+        return ORIGIN + TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -0,0 +1,150 @@
+package com.vlasenko.task.throttling.concurrency;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps the requests in flight at a limit estimated from their latency, like the gradient limiter of Netflix'
+ * concurrency-limits. Latencies are averaged over a sampling window (short RTT) and over many windows (long RTT).
+ * While requests are not slower than {@code tolerance} times the long RTT the limit grows by a queue allowance of
+ * {@code sqrt(limit)} per window; once they are, it shrinks in proportion to the slowdown, at most by half.
+ * Windows in which fewer than half of the limit were in flight say nothing about the limit and leave it as is.
+ * <p>
+ * A decision is one CAS on the in-flight count. The limit is recomputed by the one completing request that moves
+ * the window on, so estimation never blocks requests either.
+ */
+@Component
+@ConditionalOnProperty(name = "app.throttling.concurrency.enabled", havingValue = "true")
+public class AdaptiveConcurrencyLimiter {
+    /**
+     * Long RTT is drifted down while requests are this much faster than it, so that it recovers from a slow period
+     * in fewer windows than the long window
+     */
+    private static final double RECOVERY_RATIO = 2;
+    private static final double RECOVERY_DECAY = 0.95;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double smoothing;
+    private final double tolerance;
+    private final long windowNanos;
+    private final int minWindowSamples;
+    private final int longWindow;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder latencySum = new LongAdder();
+    private final LongAdder latencyCount = new LongAdder();
+    private final LongAccumulator maxInFlight = new LongAccumulator(Math::max, 0);
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private volatile int limit;
+    // Guarded by this, only the request that moved the window on updates them
+    private double estimatedLimit;
+    private double longRtt;
+
+    /**
+     * @param smoothing        weight of a window's estimate in the limit, 1 to take it as is
+     * @param tolerance        slowdown of the short RTT against the long RTT that is still tolerated
+     * @param window           sampling window of the short RTT
+     * @param minWindowSamples samples a window needs to be taken into account, fewer are added to the next window
+     * @param longWindow       windows the long RTT is averaged over
+     */
+    public AdaptiveConcurrencyLimiter(@Value("${app.throttling.concurrency.initial-limit:20}") int initialLimit,
+                                      @Value("${app.throttling.concurrency.min-limit:4}") int minLimit,
+                                      @Value("${app.throttling.concurrency.max-limit:1000}") int maxLimit,
+                                      @Value("${app.throttling.concurrency.smoothing:0.2}") double smoothing,
+                                      @Value("${app.throttling.concurrency.tolerance:1.5}") double tolerance,
+                                      @Value("${app.throttling.concurrency.window:100ms}") Duration window,
+                                      @Value("${app.throttling.concurrency.min-window-samples:10}")
+                                              int minWindowSamples,
+                                      @Value("${app.throttling.concurrency.long-window:600}") int longWindow) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.smoothing = smoothing;
+        this.tolerance = tolerance;
+        this.windowNanos = window.toNanos();
+        this.minWindowSamples = Math.max(1, minWindowSamples);
+        this.longWindow = Math.max(1, longWindow);
+        this.estimatedLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.limit = (int) estimatedLimit;
+    }
+
+    /**
+     * Lets a request in if fewer than the limit are in flight. Every request let in must be finished with
+     * {@link #onComplete(long)} or {@link #release()}.
+     *
+     * @return false if the request should be shed
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            var current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                maxInFlight.accumulate(current + 1);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Finishes a request that was served and samples its latency.
+     */
+    public void onComplete(long latencyNanos) {
+        onComplete(latencyNanos, System.nanoTime());
+    }
+
+    void onComplete(long latencyNanos, long now) {
+        inFlight.decrementAndGet();
+        latencySum.add(latencyNanos);
+        latencyCount.increment();
+
+        var start = windowStart.get();
+        if (now - start >= windowNanos && latencyCount.sum() >= minWindowSamples
+                && windowStart.compareAndSet(start, now)) {
+            var count = latencyCount.sumThenReset();
+            var sum = latencySum.sumThenReset();
+            var peak = (int) maxInFlight.getThenReset();
+            if (count > 0) {
+                update((double) sum / count, peak);
+            }
+        }
+    }
+
+    /**
+     * Finishes a request that was not served, e.g. rejected by its user's limit, without sampling its latency.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private synchronized void update(double shortRtt, int peakInFlight) {
+        longRtt = longRtt == 0 ? shortRtt : longRtt + (shortRtt - longRtt) / longWindow;
+        if (longRtt / shortRtt > RECOVERY_RATIO) {
+            longRtt *= RECOVERY_DECAY;
+        }
+        if (peakInFlight < estimatedLimit / 2) {
+            return;
+        }
+        var gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+        var next = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        next = estimatedLimit * (1 - smoothing) + next * smoothing;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, next));
+        limit = (int) estimatedLimit;
+    }
+}
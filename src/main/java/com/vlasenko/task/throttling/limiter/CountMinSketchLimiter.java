@@ -0,0 +1,146 @@
+package com.vlasenko.task.throttling.limiter;
+
+import com.vlasenko.task.throttling.Hashes;
+import com.vlasenko.task.throttling.clock.Clock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-client fixed window limits for any number of clients in constant memory: requests of each client are
+ * counted in a count-min sketch of {@code depth} rows of {@code width} counters, the client's count being the
+ * smallest of its counters. Each counter is a word laid out like in {@link FixedWindowLimiter}, with the window
+ * and the count of the window, so counters reset themselves and updates are CAS without locking.
+ * <p>
+ * A request increments all its counters first and is let in if the smallest count is within the limit, a rejected
+ * one takes its increments back. Counts are never under-estimated, but the rows are not updated in one atomic step:
+ * a client is let over its limit by at most the number of its requests racing each other for the last permits.
+ * Clients sharing counters with busy ones may be throttled early, also by increments of rejected requests not taken
+ * back yet.
+ * <p>
+ * With {@code N} requests of all clients in a second, a client's count is over by more than
+ * {@code maxOvercount * N} with a probability of at most {@code probability}. The error grows with the guest
+ * traffic, not with the client's own: once {@code maxOvercount * N} nears the client limit, innocent clients are
+ * throttled. The defaults, {@code 0.001} with a limit of 5, hold up to a few thousand guest requests a second;
+ * {@code maxOvercount} has to be lowered in proportion for more. The sketch has
+ * {@code width = ceil(e / maxOvercount)} and {@code depth = ceil(ln(1 / probability))} counters, 8 bytes each.
+ * Hashes are seeded per process, so clients cannot pick keys that collide with a victim.
+ */
+@Component
+@ConditionalOnProperty(name = "app.throttling.guest.per-client", havingValue = "true")
+public class CountMinSketchLimiter {
+    private final int limit;
+    private final int width;
+    private final int depth;
+    private final long seed = ThreadLocalRandom.current().nextLong();
+    private final AtomicLongArray counters;
+    private final Clock clock;
+
+    public CountMinSketchLimiter(@Value("${app.throttling.guest.client-rps:5}") int limit,
+                                 @Value("${app.throttling.guest.sketch.max-overcount:0.001}") double maxOvercount,
+                                 @Value("${app.throttling.guest.sketch.probability:0.01}") double probability,
+                                 Clock clock) {
+        if (maxOvercount <= 0 || maxOvercount >= 1 || probability <= 0 || probability >= 1) {
+            throw new IllegalArgumentException("Sketch error and its probability must be within (0, 1)");
+        }
+        this.limit = limit;
+        this.width = (int) Math.ceil(Math.E / maxOvercount);
+        this.depth = (int) Math.ceil(Math.log(1 / probability));
+        this.counters = new AtomicLongArray(width * depth);
+        this.clock = clock;
+    }
+
+    /**
+     * Takes one permit of the client.
+     *
+     * @return permits the client has left after this call, negative if the request is over the limit
+     */
+    public int tryAcquire(String client) {
+        return tryAcquire(client, 1);
+    }
+
+    /**
+     * Takes {@code permits} permits of the client, or none of them. Requests over the limit take their increments
+     * back, so that they do not inflate counters the client shares with others.
+     *
+     * @return permits the client has left after this call, negative if the request is over the limit
+     */
+    public int tryAcquire(String client, int permits) {
+        var now = currentSecond();
+        var hash = Hashes.hash(client, seed);
+        var h1 = (int) hash;
+        var h2 = (int) (hash >>> 32) | 1;
+
+        var estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, increment(index(row, h1, h2), now, permits));
+        }
+        if (estimate > limit) {
+            decrement(now, h1, h2, permits);
+        }
+        return limit - estimate;
+    }
+
+    /**
+     * Gives back permits of the client taken by a request rejected by another limit.
+     */
+    public void release(String client, int permits) {
+        var hash = Hashes.hash(client, seed);
+        decrement(currentSecond(), (int) hash, (int) (hash >>> 32) | 1, permits);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return memory taken by the counters in bytes
+     */
+    public long getSize() {
+        return (long) width * depth * Long.BYTES;
+    }
+
+    /**
+     * Rows are indexed by double hashing, {@code h1 + row * h2}, which is as good as independent hashes here.
+     */
+    private int index(int row, int h1, int h2) {
+        return row * width + Math.floorMod(h1 + row * h2, width);
+    }
+
+    /**
+     * @return count of the current window after the increment
+     */
+    private int increment(int index, int now, int permits) {
+        while (true) {
+            var current = counters.get(index);
+            var count = (int) (current >>> 32) == now ? (int) current + permits : permits;
+            if (counters.compareAndSet(index, current, ((long) now << 32) | count)) {
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Takes permits back from the counters of the window, those of a window that is over have been reset anyway.
+     */
+    private void decrement(int now, int h1, int h2, int permits) {
+        for (int row = 0; row < depth; row++) {
+            var index = index(row, h1, h2);
+            while (true) {
+                var current = counters.get(index);
+                var next = ((long) now << 32) | Math.max(0, (int) current - permits);
+                if ((int) (current >>> 32) != now || counters.compareAndSet(index, current, next)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private int currentSecond() {
+        return clock.seconds();
+    }
+}
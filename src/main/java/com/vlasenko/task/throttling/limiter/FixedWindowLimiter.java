@@ -0,0 +1,121 @@
+package com.vlasenko.task.throttling.limiter;
+
+
+import com.vlasenko.task.throttling.RateLimitStatus;
+import com.vlasenko.task.throttling.clock.Clock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed one-second window limiter. The window (epoch second) and the permits taken in it are packed
+ * into a single {@code long} so that a decision is one CAS without any locking: the high 32 bits hold
+ * the window, the low 32 bits hold the permits taken. Counting taken permits rather than those left keeps the
+ * state independent of the limit, so a resize only writes the limit and cannot race with a window starting.
+ */
+public class FixedWindowLimiter implements RateLimiter {
+    private volatile int limit;
+    private final Clock clock;
+    private final AtomicLong state;
+
+    public FixedWindowLimiter(int limit) {
+        this(limit, Clock.SYSTEM);
+    }
+
+    public FixedWindowLimiter(int limit, Clock clock) {
+        this.limit = limit;
+        this.clock = clock;
+        this.state = new AtomicLong(pack(currentSecond(), 0));
+    }
+
+    @Override
+    public int tryAcquire(int permits) {
+        return tryAcquire(permits, currentSecond(), limit);
+    }
+
+    /**
+     * The wait is until the window the decision was made in ends.
+     */
+    @Override
+    public long tryAcquireStatus(int permits) {
+        var millis = clock.millis();
+        var limit = this.limit;
+        var left = tryAcquire(permits, (int) (millis / 1000), limit);
+        return RateLimitStatus.of(left >= 0, limit, left, Clock.nanosToNextSecond(millis));
+    }
+
+    private int tryAcquire(int permits, int now, int limit) {
+        while (true) {
+            var current = state.get();
+            var window = window(current);
+            var taken = taken(current);
+            if (now - window > 0) {
+                window = now;
+                taken = 0;
+            }
+            var left = limit - taken - permits;
+            if (left < 0) {
+                // Nothing to write: rejections stay read-only and do not contend
+                return left;
+            }
+            if (state.compareAndSet(current, pack(window, taken + permits))) {
+                return left;
+            }
+        }
+    }
+
+    @Override
+    public void release(int permits) {
+        var now = currentSecond();
+        while (true) {
+            var current = state.get();
+            if (window(current) != now) {
+                return;
+            }
+            if (state.compareAndSet(current, pack(now, Math.max(0, taken(current) - permits)))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long getWaitNanos(int permits) {
+        return clock.nanosToNextSecond();
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public void resize(int limit) {
+        this.limit = limit;
+    }
+
+    @Override
+    public long exportState() {
+        return state.get();
+    }
+
+    @Override
+    public void restoreState(long state, long age) {
+        // Windows are epoch seconds, so the state stays valid and a past window simply starts over
+        this.state.set(state);
+    }
+
+    private int currentSecond() {
+        return clock.seconds();
+    }
+
+    private static long pack(int window, int taken) {
+        return ((long) window << 32) | (taken & 0xFFFF_FFFFL);
+    }
+
+    private static int window(long state) {
+        return (int) (state >>> 32);
+    }
+
+    private static int taken(long state) {
+        return (int) state;
+    }
+}
@@ -0,0 +1,150 @@
+package com.vlasenko.task.throttling.limiter;
+
+
+import com.vlasenko.task.throttling.RateLimitStatus;
+import com.vlasenko.task.throttling.clock.Clock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generic cell rate algorithm. The only state is the theoretical arrival time (TAT) of the next request:
+ * every permit moves it {@code 1/rps} seconds forward, and a request is allowed while the TAT stays within
+ * one second from now. This spreads requests evenly while still allowing a burst of up to {@code rps}.
+ */
+public class GcraLimiter implements RateLimiter {
+    private static final long PERIOD = 1_000_000_000L;
+
+    private volatile int limit;
+    private volatile long interval;
+    private final Clock clock;
+    private final long origin;
+    private final AtomicLong tat = new AtomicLong(Long.MIN_VALUE / 2);
+
+    public GcraLimiter(int limit) {
+        this(limit, Clock.SYSTEM);
+    }
+
+    public GcraLimiter(int limit, Clock clock) {
+        this.limit = limit;
+        this.clock = clock;
+        this.origin = clock.millis();
+        this.interval = interval(limit);
+    }
+
+    @Override
+    public int tryAcquire(int permits) {
+        if (permits > limit) {
+            return limit - permits;
+        }
+        var now = currentNanos();
+        while (true) {
+            var current = tat.get();
+            var next = Math.max(current, now) + interval * permits;
+            var ahead = next - now;
+            if (ahead > PERIOD) {
+                return -1;
+            }
+            if (tat.compareAndSet(current, next)) {
+                return (int) ((PERIOD - ahead) / interval);
+            }
+        }
+    }
+
+    /**
+     * The wait is computed from the TAT the decision left behind.
+     */
+    @Override
+    public long tryAcquireStatus(int permits) {
+        var limit = this.limit;
+        var interval = this.interval;
+        if (permits > limit) {
+            return RateLimitStatus.of(false, limit, limit - permits, Long.MAX_VALUE);
+        }
+        var now = currentNanos();
+        while (true) {
+            var current = tat.get();
+            var next = Math.max(current, now) + interval * permits;
+            var ahead = next - now;
+            if (ahead > PERIOD) {
+                return RateLimitStatus.of(false, limit, -1, waitNanos(current, now, permits, interval));
+            }
+            if (tat.compareAndSet(current, next)) {
+                return RateLimitStatus.of(true, limit, (int) ((PERIOD - ahead) / interval),
+                        waitNanos(next, now, permits, interval));
+            }
+        }
+    }
+
+    /**
+     * Moves the TAT back by the permits' intervals, a TAT that ends up in the past is the same as an idle limiter.
+     */
+    @Override
+    public void release(int permits) {
+        tat.addAndGet(-interval * permits);
+    }
+
+    @Override
+    public long getWaitNanos(int permits) {
+        if (permits > limit) {
+            return Long.MAX_VALUE;
+        }
+        return waitNanos(tat.get(), currentNanos(), permits, interval);
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Keeps the TAT as many intervals ahead of now as before, so permits taken stay taken. Decisions made while the
+     * limit is changed may use either interval.
+     */
+    @Override
+    public void resize(int limit) {
+        var previous = interval;
+        var next = interval(limit);
+        this.limit = limit;
+        this.interval = next;
+        if (previous == Long.MAX_VALUE || next == Long.MAX_VALUE) {
+            return;
+        }
+        var now = currentNanos();
+        while (true) {
+            var current = tat.get();
+            var ahead = current - now;
+            if (ahead <= 0 || tat.compareAndSet(current, now + (long) ((double) ahead / previous * next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Exports how far the TAT is ahead of now, times are relative to this process and cannot be carried over.
+     */
+    @Override
+    public long exportState() {
+        return Math.max(0, tat.get() - currentNanos());
+    }
+
+    @Override
+    public void restoreState(long state, long age) {
+        var ahead = state - TimeUnit.MILLISECONDS.toNanos(age);
+        if (ahead > 0) {
+            tat.set(currentNanos() + ahead);
+        }
+    }
+
+    private static long waitNanos(long tat, long now, int permits, long interval) {
+        return Math.max(0, tat + interval * permits - PERIOD - now);
+    }
+
+    private static long interval(int limit) {
+        return limit > 0 ? Math.max(1, PERIOD / limit) : Long.MAX_VALUE;
+    }
+
+    private long currentNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(clock.millis() - origin);
+    }
+}
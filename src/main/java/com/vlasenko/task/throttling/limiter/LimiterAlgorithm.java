@@ -0,0 +1,49 @@
+package com.vlasenko.task.throttling.limiter;
+
+import com.vlasenko.task.throttling.clock.Clock;
+
+public enum LimiterAlgorithm {
+    /**
+     * Fixed one-second windows. Cheapest, but allows up to 2x the limit across a window boundary.
+     */
+    FIXED_WINDOW(FixedWindowLimiter.class, FixedWindowLimiter::new),
+    /**
+     * Bucket of {@code rps} tokens refilled continuously.
+     */
+    TOKEN_BUCKET(TokenBucketLimiter.class, TokenBucketLimiter::new),
+    /**
+     * Current window count plus the previous window count weighted by the part of it still in the last second.
+     */
+    SLIDING_WINDOW(SlidingWindowLimiter.class, SlidingWindowLimiter::new),
+    /**
+     * Generic cell rate algorithm: one request every {@code 1/rps} seconds with a burst of up to {@code rps}.
+     */
+    GCRA(GcraLimiter.class, GcraLimiter::new);
+
+    private final Class<? extends RateLimiter> type;
+    private final Factory factory;
+
+    LimiterAlgorithm(Class<? extends RateLimiter> type, Factory factory) {
+        this.type = type;
+        this.factory = factory;
+    }
+
+    public RateLimiter create(int rps) {
+        return create(rps, Clock.SYSTEM);
+    }
+
+    public RateLimiter create(int rps, Clock clock) {
+        return factory.create(rps, clock);
+    }
+
+    /**
+     * @return whether the limiter is one {@link #create(int, Clock)} of this algorithm creates
+     */
+    public boolean isTypeOf(RateLimiter limiter) {
+        return limiter.getClass() == type;
+    }
+
+    private interface Factory {
+        RateLimiter create(int rps, Clock clock);
+    }
+}
@@ -0,0 +1,326 @@
+package com.vlasenko.task.throttling.limiter;
+
+import com.vlasenko.task.throttling.Hashes;
+import com.vlasenko.task.throttling.RateLimitStatus;
+import com.vlasenko.task.throttling.clock.Clock;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed window limiters of all users in one open-addressing table in direct memory, so that users cost no
+ * heap objects at all. A user id is interned to the index of its slot: the slot key is a 64-bit hash of the id,
+ * collisions of which are negligible for tables of any practical size. Each slot holds five words:
+ * <ul>
+ *     <li>key, 0 for a free slot and -1 while the slot is being taken;</li>
+ *     <li>window and permits taken in it, packed like in {@link FixedWindowLimiter}, so a new limit is one write of
+ *     the next word;</li>
+ *     <li>limit in the high 32 bits, SLA load time (epoch second) in the low 31 bits and a refreshing flag;</li>
+ *     <li>key of the user's organisation, see {@link com.vlasenko.task.throttling.QuotaHierarchy}, 0 for none;</li>
+ *     <li>limit of the organisation, so that its limiter can be made again once it has been evicted.</li>
+ * </ul>
+ * Words are updated with CAS through a {@link VarHandle} view of the buffer. A taken slot gets its key after its state
+ * and limits, so a user is never found with those of the previous occupant. Slots of users without requests
+ * for {@code expireAfterAccess} are reused by new users, so the table does not fill up with users of the past.
+ * A user evicted this way while being inserted concurrently may briefly get two slots, each enforcing the limit.
+ */
+@Component
+@ConditionalOnProperty(name = "app.throttling.store", havingValue = "off-heap")
+public class OffHeapLimiterTable {
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int SLOT_SIZE = 40;
+    private static final int KEY = 0;
+    private static final int STATE = 8;
+    private static final int META = 16;
+    private static final int ORGANISATION = 24;
+    private static final int ORGANISATION_RPS = 32;
+    private static final int MAX_PROBES = 64;
+    private static final long BUSY = -1;
+    private static final long REFRESHING = 1L << 31;
+    private static final long LOADED_AT_MASK = REFRESHING - 1;
+
+    private final ByteBuffer slots;
+    private final int mask;
+    private final int expireAfterSeconds;
+    private final int refreshAfterSeconds;
+    private final Clock clock;
+    private final LongAdder size = new LongAdder();
+
+    public OffHeapLimiterTable(@Value("${app.throttling.off-heap.capacity:4194304}") int capacity,
+                               @Value("${app.throttling.cache.expire-after-access:10m}") Duration expireAfterAccess,
+                               @Value("${app.throttling.cache.refresh-after:5m}") Duration refreshAfter,
+                               Clock clock) {
+        var slotCount = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.slots = ByteBuffer.allocateDirect(slotCount * SLOT_SIZE).order(ByteOrder.nativeOrder());
+        this.mask = slotCount - 1;
+        this.expireAfterSeconds = (int) Math.max(1, expireAfterAccess.toSeconds());
+        this.refreshAfterSeconds = (int) refreshAfter.toSeconds();
+        this.clock = clock;
+    }
+
+    /**
+     * @return slot of the user, negative if the user is not in the table
+     */
+    public int find(String user) {
+        var key = key(user);
+        var slot = (int) key & mask;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            var slotKey = get(slot, KEY);
+            if (slotKey == key) {
+                return slot;
+            }
+            if (slotKey == 0) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the user's limit, keeping the organisation of a user already in the table.
+     *
+     * @return slot of the user, negative if the table has no room for it
+     */
+    public int put(String user, int limit) {
+        var slot = find(user);
+        if (slot < 0) {
+            return put(user, limit, 0, 0);
+        }
+        setVolatile(slot, META, meta(limit, currentSecond()));
+        return slot;
+    }
+
+    /**
+     * Sets the user's limit and organisation. Permits a user already in the table has taken in the current window
+     * stay taken.
+     *
+     * @param organisation    key of the organisation, 0 for users on their own
+     * @param organisationRps limit of the organisation
+     * @return slot of the user, negative if the table has no room for it
+     */
+    public int put(String user, int limit, long organisation, int organisationRps) {
+        var now = currentSecond();
+        var slot = find(user);
+        if (slot < 0) {
+            return insert(key(user), limit, organisation, organisationRps, now);
+        }
+        setVolatile(slot, ORGANISATION, organisation);
+        setVolatile(slot, ORGANISATION_RPS, organisationRps);
+        setVolatile(slot, META, meta(limit, now));
+        return slot;
+    }
+
+    /**
+     * Makes the next request of the user reload its SLA.
+     */
+    public void invalidate(String user) {
+        var slot = find(user);
+        if (slot < 0) {
+            return;
+        }
+        while (true) {
+            var meta = get(slot, META);
+            if (compareAndSet(slot, META, meta, meta(limit(meta), 0))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes one permit from the user in the slot.
+     *
+     * @return permits left in the current window after this call, negative if there were none left
+     */
+    public int tryAcquire(int slot) {
+        return tryAcquire(slot, 1);
+    }
+
+    /**
+     * Takes {@code permits} permits from the user in the slot, or none of them.
+     *
+     * @return permits left in the current window after this call, negative if there were not enough left
+     */
+    public int tryAcquire(int slot, int permits) {
+        return tryAcquire(slot, permits, currentSecond(), limit(get(slot, META)));
+    }
+
+    /**
+     * Same as {@link #tryAcquire(int, int)}, with the limit and the wait until the window the decision was made in
+     * ends.
+     *
+     * @return {@link RateLimitStatus} of the user in the slot
+     */
+    public long tryAcquireStatus(int slot, int permits) {
+        var millis = clock.millis();
+        var limit = limit(get(slot, META));
+        var left = tryAcquire(slot, permits, (int) (millis / 1000), limit);
+        return RateLimitStatus.of(left >= 0, limit, left, Clock.nanosToNextSecond(millis));
+    }
+
+    private int tryAcquire(int slot, int permits, int now, int limit) {
+        while (true) {
+            var current = get(slot, STATE);
+            var window = (int) (current >>> 32);
+            var taken = (int) current;
+            if (now - window > 0) {
+                window = now;
+                taken = 0;
+            }
+            var left = limit - taken - permits;
+            if (left < 0) {
+                return left;
+            }
+            if (compareAndSet(slot, STATE, current, pack(window, taken + permits))) {
+                return left;
+            }
+        }
+    }
+
+    /**
+     * Gives back permits taken from the user in the slot by a request rejected by another limit.
+     */
+    public void release(int slot, int permits) {
+        var now = currentSecond();
+        while (true) {
+            var current = get(slot, STATE);
+            if ((int) (current >>> 32) != now) {
+                return;
+            }
+            if (compareAndSet(slot, STATE, current, pack(now, Math.max(0, (int) current - permits)))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return nanoseconds until permits of the current window come back
+     */
+    public long getWaitNanos() {
+        return clock.nanosToNextSecond();
+    }
+
+    public int getLimit(int slot) {
+        return limit(get(slot, META));
+    }
+
+    /**
+     * @return key of the organisation of the user in the slot, 0 for none
+     */
+    public long getOrganisation(int slot) {
+        return get(slot, ORGANISATION);
+    }
+
+    public int getOrganisationRps(int slot) {
+        return (int) get(slot, ORGANISATION_RPS);
+    }
+
+    /**
+     * @return true if the user's SLA is old enough to be reloaded and no other caller has started reloading it yet
+     */
+    public boolean startRefresh(int slot) {
+        var meta = get(slot, META);
+        return (meta & REFRESHING) == 0
+                && currentSecond() - (int) (meta & LOADED_AT_MASK) > refreshAfterSeconds
+                && compareAndSet(slot, META, meta, meta | REFRESHING);
+    }
+
+    /**
+     * Lets the next request retry a reload that did not produce an SLA.
+     */
+    public void refreshFailed(String user) {
+        var slot = find(user);
+        if (slot >= 0) {
+            var meta = get(slot, META);
+            compareAndSet(slot, META, meta, meta & ~REFRESHING);
+        }
+    }
+
+    /**
+     * @return amount of slots ever taken, reused slots are counted once
+     */
+    public long getSize() {
+        return size.sum();
+    }
+
+    public long getCapacity() {
+        return mask + 1L;
+    }
+
+    private int insert(long key, int limit, long organisation, int organisationRps, int now) {
+        var slot = (int) key & mask;
+        for (int probe = 0; probe < MAX_PROBES; ) {
+            var slotKey = get(slot, KEY);
+            if (slotKey == key) {
+                return slot;
+            }
+            if (slotKey == BUSY) {
+                // Another user, or the same one, is being put into the slot
+                Thread.onSpinWait();
+                continue;
+            }
+            var free = slotKey == 0;
+            if (free || now - (int) (get(slot, STATE) >>> 32) > expireAfterSeconds) {
+                if (!compareAndSet(slot, KEY, slotKey, BUSY)) {
+                    // Somebody took the slot first, look at it again
+                    continue;
+                }
+                if (free) {
+                    size.increment();
+                }
+                setVolatile(slot, STATE, pack(now, 0));
+                setVolatile(slot, ORGANISATION, organisation);
+                setVolatile(slot, ORGANISATION_RPS, organisationRps);
+                setVolatile(slot, META, meta(limit, now));
+                setVolatile(slot, KEY, key);
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+            probe++;
+        }
+        return -1;
+    }
+
+    private long get(int slot, int word) {
+        return (long) LONGS.getVolatile(slots, slot * SLOT_SIZE + word);
+    }
+
+    private void setVolatile(int slot, int word, long value) {
+        LONGS.setVolatile(slots, slot * SLOT_SIZE + word, value);
+    }
+
+    private boolean compareAndSet(int slot, int word, long expected, long value) {
+        return LONGS.compareAndSet(slots, slot * SLOT_SIZE + word, expected, value);
+    }
+
+    /**
+     * @return key of the user, never 0 or {@link #BUSY}
+     */
+    private static long key(String user) {
+        var key = Hashes.key(user);
+        return key != BUSY ? key : 1;
+    }
+
+    private static long meta(int limit, int loadedAt) {
+        return ((long) limit << 32) | (loadedAt & LOADED_AT_MASK);
+    }
+
+    private static int limit(long meta) {
+        return (int) (meta >>> 32);
+    }
+
+    private static long pack(int window, int taken) {
+        return ((long) window << 32) | (taken & 0xFFFF_FFFFL);
+    }
+
+    private int currentSecond() {
+        return clock.seconds();
+    }
+}
@@ -0,0 +1,82 @@
+package com.vlasenko.task.throttling.limiter;
+
+import com.vlasenko.task.throttling.RateLimitStatus;
+
+/**
+ * Lock-free per-second rate limiter. Implementations keep their state in atomically updated words, so a decision
+ * never allocates and never blocks. The limit is a separate field that {@link #resize(int)} writes without
+ * coordinating with decisions in flight: window limiters count permits taken rather than left, so that a window
+ * starting during a resize gets either limit but is never adjusted twice.
+ */
+public interface RateLimiter {
+    /**
+     * {@link #exportState()} of limiters that have no state worth carrying over a restart
+     */
+    long NO_STATE = Long.MIN_VALUE;
+
+    /**
+     * Takes one permit.
+     *
+     * @return permits left after this call, negative if the request is over the limit
+     */
+    default int tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * Takes {@code permits} permits at once for a request of that weight, or none of them.
+     *
+     * @return permits left after this call, negative if the request is over the limit
+     */
+    int tryAcquire(int permits);
+
+    /**
+     * Same as {@link #tryAcquire(int)}, returning the decision as a {@link RateLimitStatus} of this limiter.
+     * Limiters override it to take the limit and the wait of {@link #getWaitNanos(int)} from the clock reading and
+     * the state the decision was made on, rather than from later reads that may be of another window.
+     */
+    default long tryAcquireStatus(int permits) {
+        var left = tryAcquire(permits);
+        return RateLimitStatus.of(left >= 0, getLimit(), left, getWaitNanos(permits));
+    }
+
+    /**
+     * Gives back permits taken by a request that was rejected by another limit after all. Permits taken in a window
+     * that has ended since are not given back, the window took them with it.
+     */
+    void release(int permits);
+
+    /**
+     * Estimates when a request rejected now could get its permits. Permits of per-second windows come back with the
+     * next window, limiters refilling continuously know better.
+     *
+     * @return nanoseconds until {@code permits} permits may be free
+     */
+    long getWaitNanos(int permits);
+
+    /**
+     * @return configured amount of requests per second
+     */
+    int getLimit();
+
+    /**
+     * Changes the limit in place. Permits already taken in the current window stay taken, so a user neither gets
+     * a fresh window nor loses the requests made in it.
+     */
+    void resize(int limit);
+
+    /**
+     * @return state to carry over a restart with {@link #restoreState(long, long)}, {@link #NO_STATE} if there is none
+     */
+    default long exportState() {
+        return NO_STATE;
+    }
+
+    /**
+     * Restores state exported by a limiter of the same class and limit.
+     *
+     * @param age milliseconds passed since the state was exported
+     */
+    default void restoreState(long state, long age) {
+    }
+}
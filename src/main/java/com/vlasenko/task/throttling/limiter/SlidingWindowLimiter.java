@@ -0,0 +1,141 @@
+package com.vlasenko.task.throttling.limiter;
+
+import com.vlasenko.task.throttling.RateLimitStatus;
+import com.vlasenko.task.throttling.clock.Clock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sliding window counter: the count of the current second plus the count of the previous second weighted
+ * by the part of it that still falls into the last 1000 ms. The state packs the low 22 bits of the window
+ * (epoch second) and two 21-bit counters, so limits are capped at {@link #MAX_LIMIT}.
+ */
+public class SlidingWindowLimiter implements RateLimiter {
+    static final int MAX_LIMIT = (1 << 21) - 1;
+    private static final int WINDOW_MASK = (1 << 22) - 1;
+
+    private volatile int limit;
+    private final Clock clock;
+    private final AtomicLong state = new AtomicLong();
+
+    public SlidingWindowLimiter(int limit) {
+        this(limit, Clock.SYSTEM);
+    }
+
+    public SlidingWindowLimiter(int limit, Clock clock) {
+        checkLimit(limit);
+        this.limit = limit;
+        this.clock = clock;
+    }
+
+    @Override
+    public int tryAcquire(int permits) {
+        return tryAcquire(permits, clock.millis(), limit);
+    }
+
+    /**
+     * The wait is until the second the decision was made in ends.
+     */
+    @Override
+    public long tryAcquireStatus(int permits) {
+        var millis = clock.millis();
+        var limit = this.limit;
+        var left = tryAcquire(permits, millis, limit);
+        return RateLimitStatus.of(left >= 0, limit, left, Clock.nanosToNextSecond(millis));
+    }
+
+    private int tryAcquire(int permits, long millis, int limit) {
+        var now = (int) (millis / 1000) & WINDOW_MASK;
+        var elapsed = (int) (millis % 1000);
+        while (true) {
+            var current = state.get();
+            var window = window(current);
+            int previous;
+            int count;
+            if (window == now) {
+                previous = previous(current);
+                count = count(current);
+            } else if (((window + 1) & WINDOW_MASK) == now) {
+                previous = count(current);
+                count = 0;
+            } else {
+                previous = 0;
+                count = 0;
+            }
+            var left = limit - count - permits - (int) ((long) previous * (1000 - elapsed) / 1000);
+            if (left < 0) {
+                return left;
+            }
+            if (state.compareAndSet(current, pack(now, previous, count + permits))) {
+                return left;
+            }
+        }
+    }
+
+    @Override
+    public void release(int permits) {
+        var now = clock.seconds() & WINDOW_MASK;
+        while (true) {
+            var current = state.get();
+            if (window(current) != now) {
+                return;
+            }
+            var next = pack(now, previous(current), Math.max(0, count(current) - permits));
+            if (state.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long getWaitNanos(int permits) {
+        return clock.nanosToNextSecond();
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Counts are of permits taken, so they simply apply to the new limit.
+     */
+    @Override
+    public void resize(int limit) {
+        checkLimit(limit);
+        this.limit = limit;
+    }
+
+    @Override
+    public long exportState() {
+        return state.get();
+    }
+
+    @Override
+    public void restoreState(long state, long age) {
+        // Windows are epoch seconds, so the state stays valid and a past window simply starts over
+        this.state.set(state);
+    }
+
+    private static void checkLimit(int limit) {
+        if (limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("Sliding window supports up to " + MAX_LIMIT + " rps, got " + limit);
+        }
+    }
+
+    private static long pack(int window, int previous, int count) {
+        return ((long) window << 42) | ((long) previous << 21) | count;
+    }
+
+    private static int window(long state) {
+        return (int) (state >>> 42);
+    }
+
+    private static int previous(long state) {
+        return (int) (state >>> 21) & MAX_LIMIT;
+    }
+
+    private static int count(long state) {
+        return (int) state & MAX_LIMIT;
+    }
+}
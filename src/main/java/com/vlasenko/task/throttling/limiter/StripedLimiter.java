@@ -0,0 +1,266 @@
+package com.vlasenko.task.throttling.limiter;
+
+import com.vlasenko.task.throttling.RateLimitStatus;
+import com.vlasenko.task.throttling.clock.Clock;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed one-second window limiter for very high limits. Instead of every request hitting one shared word,
+ * threads take permits from a per-stripe slab and only go to the central budget for another chunk once their
+ * slab is empty. Words pack the window with a count like in {@link FixedWindowLimiter}: the central word counts
+ * permits taken out of the budget, so that a resize only writes the limit, and slabs count permits left in them.
+ * Slabs of a past window are simply ignored, which is how unused permits are reclaimed at the window end.
+ * <p>
+ * Every permit comes out of the central budget of its window, so the limiter never admits more than
+ * {@code limit} requests per window. When the central budget runs out, a thread with an empty slab takes
+ * permits left in other stripes before rejecting, so under-admission is limited to permits that are in transit
+ * from the central budget to a slab at that moment, at most {@code stripes * chunk}.
+ */
+public class StripedLimiter implements RateLimiter {
+    /**
+     * Longs per 64-byte cache line, stripes are spread that far apart to avoid false sharing.
+     */
+    private static final int PADDING = 8;
+    private static final int CHUNKS_PER_STRIPE = 8;
+    /**
+     * Top bit of the central count, set once the budget and all slabs were found empty in the window
+     */
+    private static final long DRAINED = 1L << 31;
+
+    private volatile int limit;
+    private volatile int chunk;
+    private final int mask;
+    private final AtomicLong central;
+    private final AtomicLongArray stripes;
+    private final Clock clock;
+
+    public StripedLimiter(int limit) {
+        this(limit, Runtime.getRuntime().availableProcessors());
+    }
+
+    public StripedLimiter(int limit, int stripes) {
+        this(limit, stripes, Clock.SYSTEM);
+    }
+
+    public StripedLimiter(int limit, int stripes, Clock clock) {
+        this.clock = clock;
+        var count = Integer.highestOneBit(Math.max(1, Math.min(stripes, 64)) * 2 - 1);
+        this.limit = limit;
+        this.chunk = Math.max(1, limit / (count * CHUNKS_PER_STRIPE));
+        this.mask = count - 1;
+        this.central = new AtomicLong(pack(currentSecond(), 0));
+        this.stripes = new AtomicLongArray(count * PADDING);
+    }
+
+    @Override
+    public int tryAcquire() {
+        return acquire(currentSecond());
+    }
+
+    /**
+     * Weighted requests take their permits from the central budget, or from the slab of their thread if the
+     * central budget is short of them. Permits left in other slabs are not gathered for them, so a weighted
+     * request may be rejected near the end of a window while some permits are still left.
+     */
+    @Override
+    public int tryAcquire(int permits) {
+        return permits == 1 ? acquire(currentSecond()) : acquire(permits, currentSecond());
+    }
+
+    /**
+     * The wait is until the window the decision was made in ends.
+     */
+    @Override
+    public long tryAcquireStatus(int permits) {
+        var millis = clock.millis();
+        var now = (int) (millis / 1000);
+        var limit = this.limit;
+        var left = permits == 1 ? acquire(now) : acquire(permits, now);
+        return RateLimitStatus.of(left >= 0, limit, left, Clock.nanosToNextSecond(millis));
+    }
+
+    private int acquire(int now) {
+        var stripe = ((int) Thread.currentThread().getId() & mask) * PADDING;
+        var left = takeFromStripe(stripe, now, 1);
+        if (left >= 0) {
+            return left + centralLeft();
+        }
+        var granted = takeFromCentral(now);
+        if (permits(granted) > 0) {
+            deposit(stripe, window(granted), permits(granted) - 1);
+            return permits(granted) - 1 + centralLeft();
+        }
+        return steal(now);
+    }
+
+    private int acquire(int permits, int now) {
+        while (true) {
+            var current = central.get();
+            var window = window(current);
+            var taken = taken(current);
+            if (now - window > 0) {
+                window = now;
+                taken = 0;
+            }
+            var left = limit - taken;
+            if (left < permits) {
+                var stripe = ((int) Thread.currentThread().getId() & mask) * PADDING;
+                return takeFromStripe(stripe, now, permits);
+            }
+            if (central.compareAndSet(current, pack(window, taken + permits))) {
+                return left - permits;
+            }
+        }
+    }
+
+    /**
+     * Gives the permits back to the central budget, whichever slab they came from.
+     */
+    @Override
+    public void release(int permits) {
+        var now = currentSecond();
+        while (true) {
+            var current = central.get();
+            if (window(current) != now) {
+                return;
+            }
+            if (central.compareAndSet(current, pack(now, Math.max(0, taken(current) - permits)))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long getWaitNanos(int permits) {
+        return clock.nanosToNextSecond();
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Permits sitting in slabs stay there, they were taken out of the budget under the previous limit.
+     */
+    @Override
+    public void resize(int limit) {
+        this.chunk = Math.max(1, limit / ((mask + 1) * CHUNKS_PER_STRIPE));
+        this.limit = limit;
+    }
+
+    /**
+     * Exports the central budget only: permits sitting in slabs are not carried over.
+     */
+    @Override
+    public long exportState() {
+        return central.get();
+    }
+
+    @Override
+    public void restoreState(long state, long age) {
+        central.set(state);
+    }
+
+    /**
+     * @return permits left in the stripe after taking {@code count}, negative if it had fewer for the current window
+     */
+    private int takeFromStripe(int stripe, int now, int count) {
+        while (true) {
+            var local = stripes.get(stripe);
+            var permits = permits(local);
+            if (now - window(local) > 0 || permits < count) {
+                return -1;
+            }
+            if (stripes.compareAndSet(stripe, local, pack(window(local), permits - count))) {
+                return permits - count;
+            }
+        }
+    }
+
+    /**
+     * @return window and amount of permits moved out of the central budget, no permits if it is exhausted
+     */
+    private long takeFromCentral(int now) {
+        while (true) {
+            var current = central.get();
+            var window = window(current);
+            var limit = this.limit;
+            int granted;
+            long next;
+            if (now - window > 0) {
+                window = now;
+                granted = Math.min(chunk, limit);
+                next = pack(now, granted);
+            } else if (taken(current) >= limit) {
+                return pack(window, 0);
+            } else {
+                granted = Math.min(chunk, limit - taken(current));
+                next = pack(window, taken(current) + granted);
+            }
+            if (granted <= 0 || central.compareAndSet(current, next)) {
+                return pack(window, granted);
+            }
+        }
+    }
+
+    private void deposit(int stripe, int window, int permits) {
+        while (true) {
+            var local = stripes.get(stripe);
+            if (window - window(local) < 0) {
+                // The stripe has moved on to a newer window, the rest of the old chunk is reclaimed
+                return;
+            }
+            var next = window(local) == window ? pack(window, permits(local) + permits) : pack(window, permits);
+            if (stripes.compareAndSet(stripe, local, next)) {
+                return;
+            }
+        }
+    }
+
+    private int steal(int now) {
+        var current = central.get();
+        if ((current & DRAINED) != 0) {
+            // Already known to be drained for this window
+            return -1;
+        }
+        for (int stripe = 0; stripe < stripes.length(); stripe += PADDING) {
+            var left = takeFromStripe(stripe, now, 1);
+            if (left >= 0) {
+                return left;
+            }
+        }
+        // Central budget is empty, so slabs can only shrink: nothing is left for this window
+        central.compareAndSet(current, current | DRAINED);
+        return -1;
+    }
+
+    /**
+     * @return permits left in the central budget, not counting those in slabs
+     */
+    private int centralLeft() {
+        return Math.max(0, limit - taken(central.get()));
+    }
+
+    private int currentSecond() {
+        return clock.seconds();
+    }
+
+    private static long pack(int window, int permits) {
+        return ((long) window << 32) | (permits & 0xFFFF_FFFFL);
+    }
+
+    private static int window(long state) {
+        return (int) (state >>> 32);
+    }
+
+    private static int permits(long state) {
+        return (int) state;
+    }
+
+    private static int taken(long state) {
+        return (int) state & Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,177 @@
+package com.vlasenko.task.throttling.limiter;
+
+import com.vlasenko.task.throttling.RateLimitStatus;
+import com.vlasenko.task.throttling.clock.Clock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket holding up to {@code rps} tokens and refilled at {@code rps} tokens per second.
+ * The high 40 bits of the state hold the last refill time in milliseconds, the low 24 bits the tokens left.
+ * Refill only advances the timestamp by the time the added tokens are worth, so fractions of a token are
+ * not lost between calls. Times are counted from the limiter's creation to fit into the 40 bits.
+ */
+public class TokenBucketLimiter implements RateLimiter {
+    static final int MAX_LIMIT = (1 << 24) - 1;
+    private static final long TOKENS_MASK = MAX_LIMIT;
+
+    private volatile int limit;
+    private final Clock clock;
+    private final long origin;
+    private final AtomicLong state;
+
+    public TokenBucketLimiter(int limit) {
+        this(limit, Clock.SYSTEM);
+    }
+
+    public TokenBucketLimiter(int limit, Clock clock) {
+        checkLimit(limit);
+        this.limit = limit;
+        this.clock = clock;
+        this.origin = clock.millis();
+        this.state = new AtomicLong(pack(currentMillis(), limit));
+    }
+
+    @Override
+    public int tryAcquire(int permits) {
+        var now = currentMillis();
+        var limit = this.limit;
+        while (true) {
+            var current = state.get();
+            var refilled = refill(current, now, limit);
+            var left = tokens(refilled) - permits;
+            if (left < 0 || state.compareAndSet(current, refilled - permits)) {
+                return left;
+            }
+        }
+    }
+
+    /**
+     * The wait is computed from the bucket the decision left behind.
+     */
+    @Override
+    public long tryAcquireStatus(int permits) {
+        var now = currentMillis();
+        var limit = this.limit;
+        while (true) {
+            var current = state.get();
+            var refilled = refill(current, now, limit);
+            var left = tokens(refilled) - permits;
+            if (left < 0) {
+                return RateLimitStatus.of(false, limit, left, waitNanos(refilled, now, permits, limit));
+            }
+            if (state.compareAndSet(current, refilled - permits)) {
+                return RateLimitStatus.of(true, limit, left, waitNanos(refilled - permits, now, permits, limit));
+            }
+        }
+    }
+
+    /**
+     * @return the state with the tokens added since its last refill
+     */
+    private static long refill(long current, long now, int limit) {
+        var time = time(current);
+        var tokens = tokens(current);
+        var elapsed = now - time;
+        if (elapsed >= 1000 || tokens >= limit) {
+            tokens = limit;
+            time = now;
+        } else if (elapsed > 0) {
+            var added = (int) (elapsed * limit / 1000);
+            if (added > 0) {
+                tokens = Math.min(limit, tokens + added);
+                time = tokens == limit ? now : time + added * 1000L / limit;
+            }
+        }
+        return pack(time, tokens);
+    }
+
+    @Override
+    public void release(int permits) {
+        while (true) {
+            var current = state.get();
+            var next = pack(time(current), Math.min(limit, tokens(current) + permits));
+            if (state.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long getWaitNanos(int permits) {
+        return waitNanos(state.get(), currentMillis(), permits, limit);
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Adds the difference to the tokens left, so tokens taken stay taken.
+     */
+    @Override
+    public void resize(int limit) {
+        checkLimit(limit);
+        var delta = limit - this.limit;
+        this.limit = limit;
+        while (true) {
+            var current = state.get();
+            var tokens = Math.max(0, Math.min(limit, tokens(current) + delta));
+            if (state.compareAndSet(current, pack(time(current), tokens))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Exports the tokens available now, times are relative to this process and cannot be carried over.
+     */
+    @Override
+    public long exportState() {
+        var current = state.get();
+        var elapsed = currentMillis() - time(current);
+        return Math.min(limit, tokens(current) + Math.min(1000, elapsed) * limit / 1000);
+    }
+
+    @Override
+    public void restoreState(long state, long age) {
+        var tokens = (int) Math.min(limit, state + Math.min(1000, age) * limit / 1000);
+        this.state.set(pack(currentMillis(), tokens));
+    }
+
+    private static long waitNanos(long state, long now, int permits, int limit) {
+        if (permits > limit) {
+            return Long.MAX_VALUE;
+        }
+        var missing = permits - tokens(state);
+        if (missing <= 0) {
+            return 0;
+        }
+        var due = time(state) + (missing * 1000L + limit - 1) / limit;
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, due - now));
+    }
+
+    private static void checkLimit(int limit) {
+        if (limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("Token bucket supports up to " + MAX_LIMIT + " rps, got " + limit);
+        }
+    }
+
+    private long currentMillis() {
+        return clock.millis() - origin;
+    }
+
+    private static long pack(long time, int tokens) {
+        return (time << 24) | tokens;
+    }
+
+    private static long time(long state) {
+        return state >>> 24;
+    }
+
+    private static int tokens(long state) {
+        return (int) (state & TOKENS_MASK);
+    }
+}
@@ -0,0 +1,81 @@
+package com.vlasenko.task.throttling.metrics;
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Allowed/rejected counters per request class, latency histograms of throttling decisions and SLA fetches and a count
+ * of users the off-heap table had no room for.
+ * All of it is striped, so recording on the request path neither allocates nor contends.
+ */
+@Component
+public class ThrottlingMetrics {
+    public enum RequestClass {
+        GUEST,
+        USER,
+        /**
+         * Request of a user whose SLA is not cached yet, throttled as a guest meanwhile.
+         */
+        PENDING_SLA
+    }
+
+    private final LongAdder[] allowed = adders();
+    private final LongAdder[] rejected = adders();
+    private final LatencyHistogram decisionLatency = new LatencyHistogram();
+    private final LatencyHistogram slaFetchLatency = new LatencyHistogram();
+    private final LongAdder offHeapOverflows = new LongAdder();
+
+    public void recordDecision(RequestClass requestClass, boolean isAllowed, long nanos) {
+        (isAllowed ? allowed : rejected)[requestClass.ordinal()].increment();
+        decisionLatency.record(nanos);
+    }
+
+    public void recordSlaFetch(long nanos) {
+        slaFetchLatency.record(nanos);
+    }
+
+    /**
+     * Counts a user kept on heap because the off-heap table had no room for it
+     */
+    public void recordOffHeapOverflow() {
+        offHeapOverflows.increment();
+    }
+
+    public long getOffHeapOverflows() {
+        return offHeapOverflows.sum();
+    }
+
+    public long getAllowed(RequestClass requestClass) {
+        return allowed[requestClass.ordinal()].sum();
+    }
+
+    public long getRejected(RequestClass requestClass) {
+        return rejected[requestClass.ordinal()].sum();
+    }
+
+    public Map<String, Object> snapshot() {
+        var decisions = new LinkedHashMap<String, Object>();
+        for (var requestClass : RequestClass.values()) {
+            decisions.put(requestClass.name().toLowerCase(Locale.ROOT).replace('_', '-'),
+                    Map.of("allowed", getAllowed(requestClass), "rejected", getRejected(requestClass)));
+        }
+        var result = new LinkedHashMap<String, Object>();
+        result.put("decisions", decisions);
+        result.put("decisionLatencyNanos", decisionLatency.snapshot());
+        result.put("slaFetchLatencyNanos", slaFetchLatency.snapshot());
+        result.put("offHeapOverflows", getOffHeapOverflows());
+        return result;
+    }
+
+    private static LongAdder[] adders() {
+        var adders = new LongAdder[RequestClass.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -0,0 +1,60 @@
+package com.vlasenko.task.throttling.metrics;
+
+import com.vlasenko.task.throttling.UserLimiterCache;
+import com.vlasenko.task.throttling.audit.AuditLog;
+import com.vlasenko.task.throttling.concurrency.AdaptiveConcurrencyLimiter;
+import com.vlasenko.task.throttling.limiter.OffHeapLimiterTable;
+import com.vlasenko.task.throttling.sla.SlaLoader;
+import org.springframework.lang.Nullable;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+public class ThrottlingMetricsApi {
+    private final ThrottlingMetrics metrics;
+    private final UserLimiterCache userLimiterCache;
+    private final SlaLoader slaLoader;
+    private final OffHeapLimiterTable offHeapLimiters;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final AuditLog auditLog;
+
+    public ThrottlingMetricsApi(ThrottlingMetrics metrics, UserLimiterCache userLimiterCache, SlaLoader slaLoader,
+                                @Nullable OffHeapLimiterTable offHeapLimiters,
+                                @Nullable AdaptiveConcurrencyLimiter concurrencyLimiter,
+                                @Nullable AuditLog auditLog) {
+        this.metrics = metrics;
+        this.userLimiterCache = userLimiterCache;
+        this.slaLoader = slaLoader;
+        this.offHeapLimiters = offHeapLimiters;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.auditLog = auditLog;
+    }
+
+    @GetMapping(path = "/throttling/metrics")
+    public Map<String, Object> getMetrics() {
+        var stats = userLimiterCache.getStats();
+        var cache = new LinkedHashMap<String, Long>();
+        cache.put("size", userLimiterCache.getEstimatedSize());
+        cache.put("hits", stats.hitCount());
+        cache.put("misses", stats.missCount());
+        cache.put("evictions", stats.evictionCount());
+
+        var result = metrics.snapshot();
+        result.put("cache", cache);
+        if (offHeapLimiters != null) {
+            result.put("offHeap", Map.of("size", offHeapLimiters.getSize(), "capacity", offHeapLimiters.getCapacity()));
+        }
+        if (concurrencyLimiter != null) {
+            result.put("concurrency", Map.of("limit", concurrencyLimiter.getLimit(),
+                    "inFlight", concurrencyLimiter.getInFlight()));
+        }
+        if (auditLog != null) {
+            result.put("audit", Map.of("written", auditLog.getWritten(), "dropped", auditLog.getDropped()));
+        }
+        result.put("slaLoadsInFlight", slaLoader.getInFlightCount());
+        return result;
+    }
+}
@@ -0,0 +1,124 @@
+package com.vlasenko.task.throttling.pace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel: one thread advances a ring of buckets every tick and runs the tasks due in the current bucket.
+ * A task lands in the bucket of its deadline tick and waits there for as many full turns of the wheel as are left,
+ * so scheduling is O(1) whatever the number of tasks. Tasks are handed to the wheel thread through a lock-free queue
+ * and buckets are only touched by that thread. Deadlines are rounded up to ticks, tasks run late by up to a tick.
+ * <p>
+ * Tasks run on the wheel thread and must be short.
+ */
+public class HashedWheelTimer implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private final long tickNanos;
+    private final int mask;
+    private final Timeout[] buckets;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final long start = System.nanoTime();
+    private final Thread worker;
+    private volatile boolean running = true;
+    // Only touched by the worker
+    private long tick;
+
+    /**
+     * @param wheelSize buckets, rounded up to a power of two
+     */
+    public HashedWheelTimer(String name, Duration tick, int wheelSize) {
+        this.tickNanos = Math.max(1, tick.toNanos());
+        var size = Integer.highestOneBit(Math.max(1, wheelSize) * 2 - 1);
+        this.mask = size - 1;
+        this.buckets = new Timeout[size];
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Runs the task on the wheel thread once {@code delayNanos} have passed.
+     */
+    public void schedule(Runnable task, long delayNanos) {
+        scheduled.add(new Timeout(task, System.nanoTime() - start + Math.max(0, delayNanos)));
+    }
+
+    /**
+     * Stops the wheel, tasks that are not due yet never run.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    private void run() {
+        while (running) {
+            var deadline = (tick + 1) * tickNanos;
+            long now;
+            while ((now = System.nanoTime() - start) < deadline && running) {
+                LockSupport.parkNanos(this, deadline - now);
+            }
+            transferScheduled();
+            expire((int) (tick & mask), now);
+            tick++;
+        }
+    }
+
+    private void transferScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            // Ceiling, so that a task never runs before its deadline
+            var ticks = Math.max(tick, (timeout.deadline + tickNanos - 1) / tickNanos);
+            timeout.rounds = (ticks - tick) / buckets.length;
+            var bucket = (int) (ticks & mask);
+            timeout.next = buckets[bucket];
+            buckets[bucket] = timeout;
+        }
+    }
+
+    private void expire(int bucket, long now) {
+        Timeout previous = null;
+        var timeout = buckets[bucket];
+        while (timeout != null) {
+            var next = timeout.next;
+            if (timeout.rounds <= 0 && timeout.deadline <= now) {
+                if (previous == null) {
+                    buckets[bucket] = next;
+                } else {
+                    previous.next = next;
+                }
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    log.warn("Timer task failed", e);
+                }
+            } else {
+                timeout.rounds--;
+                previous = timeout;
+            }
+            timeout = next;
+        }
+    }
+
+    private static class Timeout {
+        private final Runnable task;
+        /**
+         * Nanoseconds since the start of the wheel
+         */
+        private final long deadline;
+        private long rounds;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+}
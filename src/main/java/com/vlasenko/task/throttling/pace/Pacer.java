@@ -0,0 +1,105 @@
+package com.vlasenko.task.throttling.pace;
+
+import com.vlasenko.task.throttling.RateLimitStatus;
+import com.vlasenko.task.throttling.ThrottlingDecision;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.LongSupplier;
+
+/**
+ * Delays requests of paced users instead of rejecting them: a request over its user's limit is parked on a
+ * {@link HashedWheelTimer} and tried again once a permit is expected to free up, until it is allowed or
+ * {@code max-wait} has passed. Parked requests are plain timer entries, they hold no thread.
+ */
+@Component
+@ConditionalOnProperty(name = "app.throttling.pace.enabled", havingValue = "true")
+public class Pacer {
+    private final Set<String> users;
+    private final long maxWaitNanos;
+    private final long tickNanos;
+    private final HashedWheelTimer timer;
+
+    /**
+     * @param users users to pace, all others are rejected right away
+     */
+    public Pacer(@Value("${app.throttling.pace.users:}") Set<String> users,
+                 @Value("${app.throttling.pace.max-wait:1s}") Duration maxWait,
+                 @Value("${app.throttling.pace.tick:10ms}") Duration tick,
+                 @Value("${app.throttling.pace.wheel-size:512}") int wheelSize) {
+        this.users = Set.copyOf(users);
+        this.maxWaitNanos = maxWait.toNanos();
+        this.tickNanos = tick.toNanos();
+        this.timer = new HashedWheelTimer("pacer", tick, wheelSize);
+    }
+
+    public boolean isPaced(String user) {
+        return users.contains(user);
+    }
+
+    /**
+     * Tries the request again whenever {@code waitNanos} says a permit may be there, without waiting less than a tick.
+     *
+     * @param attempt   decides the request again, returns its {@link RateLimitStatus}
+     * @param waitNanos estimated time until the request could be allowed
+     * @param rejected  status of the decision that parked the request
+     * @return decision once the request is allowed or has waited for {@code max-wait}
+     */
+    public CompletionStage<ThrottlingDecision> await(LongSupplier attempt, LongSupplier waitNanos, long rejected) {
+        var waiter = new Waiter(attempt, waitNanos, System.nanoTime() + maxWaitNanos, rejected);
+        waiter.park();
+        return waiter.decision;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.close();
+    }
+
+    private class Waiter implements Runnable {
+        private final LongSupplier attempt;
+        private final LongSupplier waitNanos;
+        private final long deadline;
+        private final CompletableFuture<ThrottlingDecision> decision = new CompletableFuture<>();
+        /**
+         * Status of the last rejected attempt
+         */
+        private long status;
+
+        private Waiter(LongSupplier attempt, LongSupplier waitNanos, long deadline, long status) {
+            this.attempt = attempt;
+            this.waitNanos = waitNanos;
+            this.deadline = deadline;
+            this.status = status;
+        }
+
+        @Override
+        public void run() {
+            try {
+                status = attempt.getAsLong();
+                if (RateLimitStatus.isAllowed(status) || deadline - System.nanoTime() <= 0) {
+                    decision.complete(ThrottlingDecision.of(status));
+                } else {
+                    park();
+                }
+            } catch (RuntimeException e) {
+                decision.completeExceptionally(e);
+            }
+        }
+
+        private void park() {
+            var left = deadline - System.nanoTime();
+            if (left <= 0) {
+                decision.complete(ThrottlingDecision.of(status));
+                return;
+            }
+            timer.schedule(this, Math.min(left, Math.max(tickNanos, waitNanos.getAsLong())));
+        }
+    }
+}
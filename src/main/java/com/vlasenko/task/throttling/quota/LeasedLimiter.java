@@ -0,0 +1,169 @@
+package com.vlasenko.task.throttling.quota;
+
+import com.vlasenko.task.throttling.RateLimitStatus;
+import com.vlasenko.task.throttling.clock.Clock;
+import com.vlasenko.task.throttling.limiter.RateLimiter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed window limiter of one node enforcing a user's limit for the whole cluster. Permits are leased from the
+ * {@link QuotaCoordinator} in batches and spent locally, the window and the local permits packed into one
+ * {@code long} like in {@link com.vlasenko.task.throttling.limiter.FixedWindowLimiter}. The coordinator is only
+ * called when the local batch runs out, and once it has no permits left for the window the top bit of the local
+ * permits marks the window exhausted: further requests of the window are rejected locally instead of asking it again.
+ * <p>
+ * Permits left in the local batch when the window ends are lost, there is nothing to give them back for once the
+ * window is over. A node strands less than a batch per window, so the cluster may allow up to
+ * {@code nodes * (batch - 1)} fewer requests than the limit in a window; more batches strand fewer permits.
+ * <p>
+ * Remaining permits reported by {@link #tryAcquire()} are the ones leased by this node, not the cluster's.
+ */
+public class LeasedLimiter implements RateLimiter {
+    /**
+     * Top bit of the local permits, set once the coordinator has nothing left for the window
+     */
+    private static final long EXHAUSTED = 1L << 31;
+
+    private final String user;
+    private final int batches;
+    private volatile int limit;
+    private volatile int batch;
+    private final QuotaCoordinator coordinator;
+    private final Clock clock;
+    private final AtomicLong state;
+
+    /**
+     * @param batches batches the limit is leased in, more batches spread a user's limit more evenly over nodes
+     *                at the cost of more calls to the coordinator
+     */
+    public LeasedLimiter(String user, int limit, int batches, QuotaCoordinator coordinator) {
+        this(user, limit, batches, coordinator, Clock.SYSTEM);
+    }
+
+    public LeasedLimiter(String user, int limit, int batches, QuotaCoordinator coordinator, Clock clock) {
+        this.clock = clock;
+        this.user = user;
+        this.limit = limit;
+        this.batches = batches;
+        this.batch = Math.max(1, (limit + batches - 1) / batches);
+        this.coordinator = coordinator;
+        this.state = new AtomicLong(pack(currentSecond(), 0));
+    }
+
+    @Override
+    public int tryAcquire(int count) {
+        return tryAcquire(count, currentSecond());
+    }
+
+    /**
+     * The wait is until the window the decision was made in ends.
+     */
+    @Override
+    public long tryAcquireStatus(int permits) {
+        var millis = clock.millis();
+        var limit = this.limit;
+        var left = tryAcquire(permits, (int) (millis / 1000));
+        return RateLimitStatus.of(left >= 0, limit, left, Clock.nanosToNextSecond(millis));
+    }
+
+    private int tryAcquire(int count, int now) {
+        while (true) {
+            var current = state.get();
+            var window = window(current);
+            var permits = permits(current);
+            if (now - window > 0) {
+                state.compareAndSet(current, pack(now, 0));
+            } else if (permits >= count) {
+                if (state.compareAndSet(current, pack(window, permits - count) | exhausted(current))) {
+                    return permits - count;
+                }
+            } else if (exhausted(current) != 0) {
+                return permits - count;
+            } else {
+                return lease(window, count, count - permits);
+            }
+        }
+    }
+
+    /**
+     * Keeps released permits in the local batch for the rest of the window.
+     */
+    @Override
+    public void release(int count) {
+        var now = currentSecond();
+        while (true) {
+            var current = state.get();
+            if (window(current) != now) {
+                return;
+            }
+            if (state.compareAndSet(current, pack(now, permits(current) + count) | exhausted(current))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long getWaitNanos(int permits) {
+        return clock.nanosToNextSecond();
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * The coordinator gets the new limit with the next lease, permits leased already are kept.
+     */
+    @Override
+    public void resize(int limit) {
+        this.limit = limit;
+        this.batch = Math.max(1, (limit + batches - 1) / batches);
+    }
+
+    /**
+     * Leases at least the permits the local batch is short of and takes the request's permits if they are there now.
+     * Permits granted to a rejected request stay in the local batch. The window is marked exhausted if the
+     * coordinator grants nothing.
+     */
+    private int lease(int window, int count, int missing) {
+        var granted = coordinator.lease(user, limit, window, Math.max(batch, missing));
+        while (true) {
+            var current = state.get();
+            if (window(current) != window) {
+                // The window ended meanwhile and the granted permits with it, the request is decided in the new one
+                return tryAcquire(count);
+            }
+            var permits = permits(current) + granted;
+            var exhausted = granted == 0 ? EXHAUSTED : exhausted(current);
+            if (state.compareAndSet(current,
+                    pack(window, permits >= count ? permits - count : permits) | exhausted)) {
+                return permits - count;
+            }
+        }
+    }
+
+    private int currentSecond() {
+        return clock.seconds();
+    }
+
+    private static long pack(int window, int permits) {
+        return ((long) window << 32) | (permits & 0xFFFF_FFFFL);
+    }
+
+    private static int window(long state) {
+        return (int) (state >>> 32);
+    }
+
+    private static int permits(long state) {
+        return (int) state & Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return {@link #EXHAUSTED} bit of the state, to be kept by updates within the window
+     */
+    private static long exhausted(long state) {
+        return state & EXHAUSTED;
+    }
+}
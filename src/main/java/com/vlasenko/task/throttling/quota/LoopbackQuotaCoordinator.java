@@ -0,0 +1,59 @@
+package com.vlasenko.task.throttling.quota;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process coordinator: all application contexts of the JVM configured with the same cluster name share
+ * one table of leases, which lets cluster quotas be run and tested on a single machine.
+ * Each user's lease state is the window and the permits leased in it packed into one {@code long}.
+ */
+@Component
+@ConditionalOnProperty(name = "app.throttling.quota.coordinator", havingValue = "loopback")
+public class LoopbackQuotaCoordinator implements QuotaCoordinator {
+    private static final Map<String, Cache<String, AtomicLong>> CLUSTERS = new ConcurrentHashMap<>();
+
+    private final Cache<String, AtomicLong> leases;
+
+    public LoopbackQuotaCoordinator(@Value("${app.throttling.quota.cluster:default}") String cluster) {
+        this.leases = CLUSTERS.computeIfAbsent(cluster, name -> Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofMinutes(1))
+                .build());
+    }
+
+    @Override
+    public int lease(String user, int limit, int window, int permits) {
+        var state = leases.get(user, key -> new AtomicLong(pack(window, 0)));
+        while (true) {
+            var current = state.get();
+            var leased = window(current) == window ? leased(current) : 0;
+            var granted = Math.min(permits, limit - leased);
+            if (granted <= 0 || window(current) - window > 0) {
+                return 0;
+            }
+            if (state.compareAndSet(current, pack(window, leased + granted))) {
+                return granted;
+            }
+        }
+    }
+
+    private static long pack(int window, int leased) {
+        return ((long) window << 32) | (leased & 0xFFFF_FFFFL);
+    }
+
+    private static int window(long state) {
+        return (int) (state >>> 32);
+    }
+
+    private static int leased(long state) {
+        return (int) state;
+    }
+}
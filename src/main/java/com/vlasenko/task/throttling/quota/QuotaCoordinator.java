@@ -0,0 +1,16 @@
+package com.vlasenko.task.throttling.quota;
+
+/**
+ * Shares users' per-second limits between all nodes of a cluster. Nodes lease permits in batches and spend
+ * them locally, so the coordinator is only called once per batch and never for every request.
+ * Windows are epoch seconds.
+ */
+public interface QuotaCoordinator {
+
+    /**
+     * Leases up to {@code permits} permits of the user's {@code limit} in the window.
+     *
+     * @return permits granted, 0 if the cluster has used up the user's limit in the window
+     */
+    int lease(String user, int limit, int window, int permits);
+}
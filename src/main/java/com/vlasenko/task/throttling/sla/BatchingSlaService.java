@@ -0,0 +1,115 @@
+package com.vlasenko.task.throttling.sla;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects single-token lookups for up to {@code maxDelay} or until {@code maxSize} of them are pending and
+ * sends them to the backend as one {@link SlaService#getSlaByTokens(Collection)} call. Batches are sent from
+ * a small shared executor, results are split back to the waiting futures.
+ */
+@Service
+@Primary
+public class BatchingSlaService implements SlaService {
+    private final SlaService backend;
+    private final long maxDelayNanos;
+    private final int maxSize;
+    private final ScheduledThreadPoolExecutor executor;
+    private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    public BatchingSlaService(@Qualifier(SlaServiceImpl.BACKEND) SlaService backend,
+                              @Value("${app.throttling.sla.batch.max-delay:5ms}") Duration maxDelay,
+                              @Value("${app.throttling.sla.batch.max-size:100}") int maxSize,
+                              @Value("${app.throttling.sla.batch.threads:2}") int threads) {
+        this.backend = backend;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.maxSize = maxSize;
+        this.executor = new ScheduledThreadPoolExecutor(threads, runnable -> {
+            var thread = new Thread(runnable, "sla-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public CompletableFuture<SLA> getSlaByToken(String token) {
+        var future = new CompletableFuture<SLA>();
+        queue.add(new Pending(token, future));
+        var pending = queued.incrementAndGet();
+        if (pending == 1) {
+            executor.schedule(this::flush, maxDelayNanos, TimeUnit.NANOSECONDS);
+        } else if (pending % maxSize == 0) {
+            executor.execute(this::flush);
+        }
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, SLA>> getSlaByTokens(Collection<String> tokens) {
+        return backend.getSlaByTokens(tokens);
+    }
+
+    private void flush() {
+        while (true) {
+            var batch = new HashMap<String, List<CompletableFuture<SLA>>>();
+            Pending pending;
+            while (batch.size() < maxSize && (pending = queue.poll()) != null) {
+                queued.decrementAndGet();
+                batch.computeIfAbsent(pending.token, token -> new ArrayList<>(1)).add(pending.future);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            send(batch);
+        }
+    }
+
+    private void send(Map<String, List<CompletableFuture<SLA>>> batch) {
+        CompletableFuture<Map<String, SLA>> call;
+        try {
+            call = backend.getSlaByTokens(new ArrayList<>(batch.keySet()));
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((slas, ex) -> batch.forEach((token, futures) -> {
+            for (var future : futures) {
+                if (ex != null) {
+                    future.completeExceptionally(ex);
+                } else {
+                    future.complete(slas.get(token));
+                }
+            }
+        }));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static class Pending {
+        private final String token;
+        private final CompletableFuture<SLA> future;
+
+        private Pending(String token, CompletableFuture<SLA> future) {
+            this.token = token;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.vlasenko.task.throttling.sla;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens after {@code failureThreshold} consecutive failures and rejects calls for {@code openNanos}.
+ * Afterwards a single trial call is let through: its success closes the breaker, its failure opens it again.
+ */
+class CircuitBreaker {
+    enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger state = new AtomicInteger(State.CLOSED.ordinal());
+    private volatile long openedAt;
+
+    CircuitBreaker(int failureThreshold, long openNanos) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openNanos;
+    }
+
+    /**
+     * @return true if a call may be made now
+     */
+    boolean tryAcquire() {
+        var current = state.get();
+        if (current == State.CLOSED.ordinal()) {
+            return true;
+        }
+        return current == State.OPEN.ordinal()
+                && System.nanoTime() - openedAt >= openNanos
+                && state.compareAndSet(current, State.HALF_OPEN.ordinal());
+    }
+
+    /**
+     * @return true if calls are rejected and will keep being rejected until the open period is over
+     */
+    boolean isOpen() {
+        return state.get() == State.OPEN.ordinal() && System.nanoTime() - openedAt < openNanos;
+    }
+
+    void onSuccess() {
+        failures.set(0);
+        state.set(State.CLOSED.ordinal());
+    }
+
+    void onFailure() {
+        if (state.get() == State.HALF_OPEN.ordinal() || failures.incrementAndGet() >= failureThreshold) {
+            openedAt = System.nanoTime();
+            failures.set(0);
+            state.set(State.OPEN.ordinal());
+        }
+    }
+
+    State getState() {
+        return State.values()[state.get()];
+    }
+}
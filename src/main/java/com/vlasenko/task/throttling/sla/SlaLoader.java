@@ -0,0 +1,134 @@
+package com.vlasenko.task.throttling.sla;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.vlasenko.task.throttling.metrics.ThrottlingMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Loads SLAs from {@link SlaService} so that an SLA backend outage can not turn into a thundering herd:
+ * <ul>
+ *     <li>at most one load per user is in flight, concurrent callers join it;</li>
+ *     <li>every call is bounded by a timeout and retried with exponential backoff and full jitter;</li>
+ *     <li>users whose load failed are not retried until the negative cache entry expires;</li>
+ *     <li>a circuit breaker stops calling the backend after a series of failures.</li>
+ * </ul>
+ */
+@Component
+public class SlaLoader {
+    private static final long MAX_NEGATIVE_ENTRIES = 100_000;
+    private static final IllegalStateException SUSPENDED = new IllegalStateException("SLA loading is suspended");
+    private static final CompletableFuture<SlaService.SLA> REJECTED = CompletableFuture.failedFuture(SUSPENDED);
+
+    private final SlaService slaService;
+    private final ThrottlingMetrics metrics;
+    private final long timeoutMillis;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+    private final CircuitBreaker circuitBreaker;
+    private final Cache<String, Boolean> failedUsers;
+    private final Map<String, CompletableFuture<SlaService.SLA>> inFlight = new ConcurrentHashMap<>();
+
+    public SlaLoader(SlaService slaService,
+                     @Value("${app.throttling.sla.timeout:3s}") Duration timeout,
+                     @Value("${app.throttling.sla.max-attempts:3}") int maxAttempts,
+                     @Value("${app.throttling.sla.retry-backoff:200ms}") Duration retryBackoff,
+                     @Value("${app.throttling.sla.negative-ttl:30s}") Duration negativeTtl,
+                     @Value("${app.throttling.sla.circuit-breaker.failure-threshold:20}") int failureThreshold,
+                     @Value("${app.throttling.sla.circuit-breaker.open-duration:10s}") Duration openDuration,
+                     ThrottlingMetrics metrics) {
+        this.slaService = slaService;
+        this.metrics = metrics;
+        this.timeoutMillis = timeout.toMillis();
+        this.maxAttempts = maxAttempts;
+        this.retryBackoffMillis = Math.max(1, retryBackoff.toMillis());
+        this.circuitBreaker = new CircuitBreaker(failureThreshold, openDuration.toNanos());
+        this.failedUsers = Caffeine.newBuilder()
+                .maximumSize(MAX_NEGATIVE_ENTRIES)
+                .expireAfterWrite(negativeTtl)
+                .build();
+    }
+
+    /**
+     * Starts loading the user's SLA unless it is already in flight.
+     *
+     * @param onComplete invoked once when the load finishes, only if this call is the one that started it
+     * @return the in-flight load, or an already failed future if the user failed recently or the backend is
+     * considered down
+     */
+    public CompletableFuture<SlaService.SLA> load(String token, String user,
+                                                  BiConsumer<SlaService.SLA, Throwable> onComplete) {
+        var existing = inFlight.get(user);
+        if (existing != null) {
+            return existing;
+        }
+        if (failedUsers.getIfPresent(user) != null || circuitBreaker.isOpen()) {
+            return REJECTED;
+        }
+        var promise = new CompletableFuture<SlaService.SLA>();
+        existing = inFlight.putIfAbsent(user, promise);
+        if (existing != null) {
+            return existing;
+        }
+        promise.whenComplete((sla, ex) -> {
+            inFlight.remove(user, promise);
+            onComplete.accept(sla, ex);
+        });
+        attempt(token, user, promise, 0);
+        return promise;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private void attempt(String token, String user, CompletableFuture<SlaService.SLA> promise, int attempt) {
+        if (!circuitBreaker.tryAcquire()) {
+            // Not cached as a failure of the user: the circuit may close long before the entry expires
+            promise.completeExceptionally(SUSPENDED);
+            return;
+        }
+        var started = System.nanoTime();
+        CompletableFuture<SlaService.SLA> call;
+        try {
+            call = slaService.getSlaByToken(token).copy().orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((sla, ex) -> {
+            metrics.recordSlaFetch(System.nanoTime() - started);
+            if (ex == null) {
+                circuitBreaker.onSuccess();
+                if (sla != null) {
+                    promise.complete(sla);
+                } else {
+                    fail(user, promise, new NoSuchElementException("No SLA for user " + user));
+                }
+            } else {
+                circuitBreaker.onFailure();
+                if (attempt + 1 >= maxAttempts) {
+                    fail(user, promise, ex);
+                } else {
+                    var backoff = ThreadLocalRandom.current().nextLong(retryBackoffMillis << Math.min(attempt, 20)) + 1;
+                    CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS)
+                            .execute(() -> attempt(token, user, promise, attempt + 1));
+                }
+            }
+        });
+    }
+
+    private void fail(String user, CompletableFuture<SlaService.SLA> promise, Throwable ex) {
+        failedUsers.put(user, Boolean.TRUE);
+        promise.completeExceptionally(ex);
+    }
+}
@@ -1,18 +1,51 @@
 package com.vlasenko.task.throttling.sla;
 
+import com.vlasenko.task.throttling.limiter.LimiterAlgorithm;
+
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 public interface SlaService {
 
     CompletableFuture<SLA> getSlaByToken(String token);
 
+    /**
+     * Looks up SLAs of many tokens in one call.
+     *
+     * @return SLAs by token, tokens without an SLA are absent from the map
+     */
+    CompletableFuture<Map<String, SLA>> getSlaByTokens(Collection<String> tokens);
+
     class SLA {
         private final String user;
         private final int rps;
+        private final LimiterAlgorithm algorithm;
+        private final String organisation;
+        private final int organisationRps;
 
         public SLA(String user, int rps) {
+            this(user, rps, null);
+        }
+
+        /**
+         * @param algorithm limiting algorithm for this user, {@code null} to use the globally configured one
+         */
+        public SLA(String user, int rps, LimiterAlgorithm algorithm) {
+            this(user, rps, algorithm, null, 0);
+        }
+
+        /**
+         * @param organisation    organisation sharing {@code organisationRps} among all of its users, {@code null}
+         *                        for users on their own
+         * @param organisationRps limit of the whole organisation
+         */
+        public SLA(String user, int rps, LimiterAlgorithm algorithm, String organisation, int organisationRps) {
             this.user = user;
             this.rps = rps;
+            this.algorithm = algorithm;
+            this.organisation = organisation;
+            this.organisationRps = organisationRps;
         }
 
         public String getUser() {
@@ -22,5 +55,17 @@ public interface SlaService {
         public int getRps() {
             return rps;
         }
+
+        public LimiterAlgorithm getAlgorithm() {
+            return algorithm;
+        }
+
+        public String getOrganisation() {
+            return organisation;
+        }
+
+        public int getOrganisationRps() {
+            return organisationRps;
+        }
     }
 }
@@ -1,15 +1,27 @@
 package com.vlasenko.task.throttling.sla;
 
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Service
+@Qualifier(SlaServiceImpl.BACKEND)
 public class SlaServiceImpl implements SlaService {
+    /**
+     * Qualifier of the remote SLA backend, the primary {@link SlaService} bean batches calls to it.
+     */
+    public static final String BACKEND = "slaBackend";
+
     private static final Map<String, SLA> map = new HashMap<>();
+    private static final long LATENCY_MILLIS = 1_500;
 
     static {
         var user1 = new SLA("user1", 1);
@@ -18,16 +30,37 @@ public class SlaServiceImpl implements SlaService {
         map.put("token2", new SLA("user2", 2));
     }
 
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "sla-backend");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     @Override
     public CompletableFuture<SLA> getSlaByToken(String token) {
         var completableFuture = new CompletableFuture<SLA>();
+        executor.schedule(() -> completableFuture.complete(map.get(token)), LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+        return completableFuture;
+    }
 
-        Executors.newCachedThreadPool().submit(() -> {
-            Thread.sleep(1_500);
-            completableFuture.complete(map.get(token));
-            return null;
-        });
-
+    @Override
+    public CompletableFuture<Map<String, SLA>> getSlaByTokens(Collection<String> tokens) {
+        var completableFuture = new CompletableFuture<Map<String, SLA>>();
+        executor.schedule(() -> {
+            var result = new HashMap<String, SLA>();
+            for (var token : tokens) {
+                var sla = map.get(token);
+                if (sla != null) {
+                    result.put(token, sla);
+                }
+            }
+            completableFuture.complete(result);
+        }, LATENCY_MILLIS, TimeUnit.MILLISECONDS);
         return completableFuture;
     }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
 }
@@ -0,0 +1,27 @@
+package com.vlasenko.task.throttling.web;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Throttling of a controller method, or of all methods of a controller. Handlers without it are throttled too,
+ * at the cost of one permit. Annotations are resolved once at startup, see {@link ThrottledHandlers}.
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Throttled {
+    /**
+     * @return permits a request takes from its user and from every quota above the user
+     */
+    int cost() default 1;
+
+    /**
+     * @return endpoint budget the requests are charged to, configured in {@code app.throttling.quota.endpoint-rps};
+     * the path pattern of the handler if not set. Handlers naming the same bucket share its budget.
+     */
+    String bucket() default "";
+}
@@ -0,0 +1,102 @@
+package com.vlasenko.task.throttling.web;
+
+import com.vlasenko.task.throttling.QuotaHierarchy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Throttling bindings of all request mappings, resolved from {@link Throttled} once the context is refreshed, so that
+ * a request only looks its handler method up in a map.
+ */
+@Component
+public class ThrottledHandlers {
+    private static final Logger log = LoggerFactory.getLogger(ThrottledHandlers.class);
+    static final Binding DEFAULT = new Binding(1, null);
+
+    private final QuotaHierarchy quotas;
+    private volatile Map<Method, Binding> bindings = Map.of();
+
+    public ThrottledHandlers(QuotaHierarchy quotas) {
+        this.quotas = quotas;
+    }
+
+    @EventListener
+    public void onContextRefreshed(ContextRefreshedEvent event) {
+        var handlerMethods = new HashMap<RequestMappingInfo, HandlerMethod>();
+        event.getApplicationContext().getBeansOfType(RequestMappingHandlerMapping.class).values()
+                .forEach(mapping -> handlerMethods.putAll(mapping.getHandlerMethods()));
+        bind(handlerMethods);
+    }
+
+    /**
+     * @return binding of the handler, {@link #DEFAULT} for handlers that are not request mappings
+     */
+    public Binding get(Object handler) {
+        if (!(handler instanceof HandlerMethod)) {
+            return DEFAULT;
+        }
+        return bindings.getOrDefault(((HandlerMethod) handler).getMethod(), DEFAULT);
+    }
+
+    /**
+     * A method mapped to several paths is bound to the first pattern of the first mapping.
+     */
+    void bind(Map<RequestMappingInfo, HandlerMethod> handlerMethods) {
+        var bindings = new HashMap<Method, Binding>();
+        handlerMethods.forEach((info, handlerMethod) -> {
+            var method = handlerMethod.getMethod();
+            var throttled = AnnotatedElementUtils.findMergedAnnotation(method, Throttled.class);
+            if (throttled == null) {
+                throttled = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getBeanType(), Throttled.class);
+            }
+            if (throttled != null && throttled.cost() < 1) {
+                throw new IllegalStateException("Cost of " + method + " must be positive, got " + throttled.cost());
+            }
+            String bucket;
+            if (throttled != null && !throttled.bucket().isEmpty()) {
+                bucket = throttled.bucket();
+                if (quotas.getEndpoint(bucket) == null) {
+                    log.warn("Bucket {} of {} has no budget in app.throttling.quota.endpoint-rps", bucket, method);
+                }
+            } else {
+                var patterns = info.getPatternsCondition().getPatterns();
+                bucket = patterns.isEmpty() ? null : patterns.iterator().next();
+            }
+            bindings.putIfAbsent(method, new Binding(throttled != null ? throttled.cost() : 1, bucket));
+        });
+        this.bindings = bindings;
+    }
+
+    public static class Binding {
+        private final int cost;
+        private final String bucket;
+
+        Binding(int cost, String bucket) {
+            this.cost = cost;
+            this.bucket = bucket;
+        }
+
+        public int getCost() {
+            return cost;
+        }
+
+        /**
+         * @return endpoint budget the requests are charged to, null for none
+         */
+        public String getBucket() {
+            return bucket;
+        }
+
+    }
+}
@@ -0,0 +1,214 @@
+package com.vlasenko.task.throttling.web;
+
+import com.vlasenko.task.throttling.RateLimitStatus;
+import com.vlasenko.task.throttling.ThrottlingDecision;
+import com.vlasenko.task.throttling.ThrottlingService;
+import com.vlasenko.task.throttling.concurrency.AdaptiveConcurrencyLimiter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Throttles every handler before it is dispatched. Rejections are answered right here with a preallocated
+ * 429 body, without throwing and resolving an exception.
+ * <p>
+ * Requests of users whose SLA is still being loaded wait for it up to {@code app.throttling.sla-wait}, requests of
+ * paced users over their limit wait the same way for a permit, see {@link com.vlasenko.task.throttling.pace.Pacer}.
+ * A waiting request is put into asynchronous mode by the interceptor itself, so no servlet thread is held meanwhile,
+ * and dispatched to its handler only once it is allowed: handlers never see a request that was rejected, whatever
+ * they return.
+ * <p>
+ * Guests are told apart by the remote address, or by the first address in {@code app.throttling.guest.client-header}
+ * when the service sits behind a proxy, e.g. {@code X-Forwarded-For}. Cost and endpoint budget of a request come from
+ * the {@link Throttled} binding of its handler.
+ * <p>
+ * With {@code app.throttling.concurrency.enabled} requests are first let in by the {@link AdaptiveConcurrencyLimiter}:
+ * those over its limit are shed with 503 before any user is looked up. Waiting requests do no work, they leave the
+ * limit while they wait and are let in again before they are dispatched.
+ * <p>
+ * Throttled responses, allowed or not, tell the client its limit, the permits it has left and in how many seconds
+ * to try again ({@code RateLimit-Limit}, {@code RateLimit-Remaining}, {@code Retry-After}), see
+ * {@link RateLimitStatus}, so that clients back off instead of retrying right away.
+ */
+@Component
+public class ThrottlingInterceptor implements HandlerInterceptor {
+    public static final String TOKEN_HEADER = "token";
+    public static final String LIMIT_HEADER = "RateLimit-Limit";
+    public static final String REMAINING_HEADER = "RateLimit-Remaining";
+    private static final byte[] TOO_MANY_REQUESTS_BODY = "Too many requests".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OVERLOADED_BODY = "Service overloaded".getBytes(StandardCharsets.US_ASCII);
+    private static final String TEXT_TYPE = "text/plain;charset=US-ASCII";
+    private static final String STARTED = ThrottlingInterceptor.class.getName() + ".STARTED";
+    private static final String PENDING_DECISION = ThrottlingInterceptor.class.getName() + ".PENDING_DECISION";
+
+    private final ThrottlingService throttlingService;
+    private final ThrottledHandlers handlers;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final Duration slaWait;
+    private final String clientHeader;
+    private final boolean throttlingEnabled;
+
+    public ThrottlingInterceptor(ThrottlingService throttlingService, ThrottledHandlers handlers,
+                                 @Nullable AdaptiveConcurrencyLimiter concurrencyLimiter,
+                                 @Value("${app.throttling.enabled:true}") boolean throttlingEnabled,
+                                 @Value("${app.throttling.sla-wait:300ms}") Duration slaWait,
+                                 @Value("${app.throttling.guest.client-header:}") String clientHeader) {
+        this.throttlingService = throttlingService;
+        this.handlers = handlers;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.throttlingEnabled = throttlingEnabled;
+        this.slaWait = slaWait;
+        this.clientHeader = clientHeader.isEmpty() ? null : clientHeader;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException {
+        if (!throttlingEnabled || request.getDispatcherType() != DispatcherType.REQUEST) {
+            return true;
+        }
+        if (concurrencyLimiter != null) {
+            if (!concurrencyLimiter.tryAcquire()) {
+                reject(response, HttpStatus.SERVICE_UNAVAILABLE, OVERLOADED_BODY);
+                return false;
+            }
+            request.setAttribute(STARTED, System.nanoTime());
+        }
+        long status;
+        try {
+            status = decide(request, handler);
+        } catch (RuntimeException e) {
+            leaveConcurrencyLimit(request);
+            throw e;
+        }
+        if (status == RateLimitStatus.PENDING) {
+            awaitDecision(request, response);
+            return false;
+        }
+        writeStatus(response, status);
+        if (RateLimitStatus.isAllowed(status)) {
+            return true;
+        }
+        rejectThrottled(request, response);
+        return false;
+    }
+
+    /**
+     * Samples the latency of requests let in by the concurrency limiter. Asynchronous handlers get here once their
+     * result has been dispatched.
+     */
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                @Nullable Exception ex) {
+        var started = request.getAttribute(STARTED);
+        if (started != null) {
+            request.removeAttribute(STARTED);
+            concurrencyLimiter.onComplete(System.nanoTime() - (long) started);
+        }
+    }
+
+    /**
+     * @return {@link RateLimitStatus#PENDING} if the decision was left in the request to wait for
+     */
+    private long decide(HttpServletRequest request, Object handler) {
+        var token = request.getHeader(TOKEN_HEADER);
+        var client = client(request);
+        var binding = handlers.get(handler);
+        if (request.isAsyncSupported()) {
+            return throttlingService.tryAcquireStatus(token, client, binding.getBucket(), binding.getCost(), slaWait,
+                    request, ThrottlingInterceptor::leavePending);
+        }
+        return throttlingService.tryAcquireStatus(token, client, binding.getBucket(), binding.getCost());
+    }
+
+    private static void leavePending(HttpServletRequest request, CompletionStage<ThrottlingDecision> decision) {
+        request.setAttribute(PENDING_DECISION, decision);
+    }
+
+    /**
+     * Parks the request until its decision is made, out of the concurrency limit. Allowed requests are let in again
+     * and dispatched, this time to their handler, their latency is sampled from then on; those over the limit by then
+     * are shed with 503. Rejected ones, and those whose decision failed, are answered with 429 without reaching the
+     * handler.
+     */
+    @SuppressWarnings("unchecked")
+    private void awaitDecision(HttpServletRequest request, HttpServletResponse response) {
+        var decision = (CompletionStage<ThrottlingDecision>) request.getAttribute(PENDING_DECISION);
+        request.removeAttribute(PENDING_DECISION);
+        leaveConcurrencyLimit(request);
+        var async = request.startAsync(request, response);
+        decision.whenComplete((made, ex) -> {
+            try {
+                if (made == null || !made.isAllowed()) {
+                    if (made != null) {
+                        writeStatus(response, made.getStatus());
+                    }
+                    rejectThrottled(request, response);
+                } else if (concurrencyLimiter != null && !concurrencyLimiter.tryAcquire()) {
+                    reject(response, HttpStatus.SERVICE_UNAVAILABLE, OVERLOADED_BODY);
+                } else {
+                    if (concurrencyLimiter != null) {
+                        request.setAttribute(STARTED, System.nanoTime());
+                    }
+                    writeStatus(response, made.getStatus());
+                    async.dispatch();
+                    return;
+                }
+            } catch (IOException ignored) {
+                // The client is gone
+            }
+            async.complete();
+        });
+    }
+
+    /**
+     * Rejected requests leave the concurrency limit without a latency sample, they did not do the work.
+     */
+    private void rejectThrottled(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        leaveConcurrencyLimit(request);
+        reject(response, HttpStatus.TOO_MANY_REQUESTS, TOO_MANY_REQUESTS_BODY);
+    }
+
+    /**
+     * Releases the request's place in the concurrency limit, if it holds one.
+     */
+    private void leaveConcurrencyLimit(HttpServletRequest request) {
+        if (request.getAttribute(STARTED) != null) {
+            request.removeAttribute(STARTED);
+            concurrencyLimiter.release();
+        }
+    }
+
+    private static void writeStatus(HttpServletResponse response, long status) {
+        response.setIntHeader(LIMIT_HEADER, RateLimitStatus.getLimit(status));
+        response.setIntHeader(REMAINING_HEADER, RateLimitStatus.getRemaining(status));
+        response.setIntHeader(HttpHeaders.RETRY_AFTER, RateLimitStatus.getRetryAfter(status));
+    }
+
+    private static void reject(HttpServletResponse response, HttpStatus status, byte[] body) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(TEXT_TYPE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private String client(HttpServletRequest request) {
+        var forwarded = clientHeader != null ? request.getHeader(clientHeader) : null;
+        if (forwarded == null) {
+            return request.getRemoteAddr();
+        }
+        var comma = forwarded.indexOf(',');
+        return (comma < 0 ? forwarded : forwarded.substring(0, comma)).trim();
+    }
+}
@@ -0,0 +1,20 @@
+package com.vlasenko.task.throttling.web;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class ThrottlingWebConfig implements WebMvcConfigurer {
+    private final ThrottlingInterceptor throttlingInterceptor;
+
+    public ThrottlingWebConfig(ThrottlingInterceptor throttlingInterceptor) {
+        this.throttlingInterceptor = throttlingInterceptor;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // Throttling's own endpoints must stay reachable when the service is throttled
+        registry.addInterceptor(throttlingInterceptor).excludePathPatterns("/throttling/**");
+    }
+}
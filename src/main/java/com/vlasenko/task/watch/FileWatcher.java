@@ -0,0 +1,87 @@
+package com.vlasenko.task.watch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a file and loads it again every {@code interval} if it has changed since, on a daemon thread of its own.
+ * A file that cannot be loaded is logged and the owner keeps what it loaded before; it is tried again
+ * on the next check.
+ */
+public class FileWatcher {
+    private static final Logger log = LoggerFactory.getLogger(FileWatcher.class);
+
+    private final Path file;
+    private final Loader loader;
+    private final ScheduledExecutorService reloader;
+    private volatile BasicFileAttributes loadedAttributes;
+
+    /**
+     * Loads the file before returning.
+     *
+     * @param description what the file holds, for logs and the name of the thread
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    public FileWatcher(Path file, String description, Duration interval, Loader loader) {
+        this.file = file;
+        this.loader = loader;
+        try {
+            reload();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + description + " " + file, e);
+        }
+        this.reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, description.replace(' ', '-') + "-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloader.scheduleWithFixedDelay(() -> {
+            try {
+                reload();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Cannot reload {} {}, keeping the loaded one", description, file, e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Loads the file if it has changed since it was loaded last.
+     *
+     * @return whether the file was loaded
+     */
+    public boolean reload() throws IOException {
+        // A new file moved into place has a new file key even if it has the same modification time
+        var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        var previous = loadedAttributes;
+        if (previous != null && attributes.lastModifiedTime().equals(previous.lastModifiedTime())
+                && Objects.equals(attributes.fileKey(), previous.fileKey())) {
+            return false;
+        }
+        loader.load(file);
+        loadedAttributes = attributes;
+        return true;
+    }
+
+    public void shutdown() {
+        reloader.shutdownNow();
+    }
+
+    @FunctionalInterface
+    public interface Loader {
+        /**
+         * Reads the file and replaces what was read before, or throws and leaves it as it is.
+         */
+        void load(Path file) throws IOException;
+    }
+}
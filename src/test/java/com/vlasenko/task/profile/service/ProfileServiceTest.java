@@ -0,0 +1,68 @@
+package com.vlasenko.task.profile.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ProfileServiceTest {
+    @TempDir
+    Path dir;
+
+    private ProfileService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void shouldUseBuiltInTokensWithoutIndexFile() {
+        service = new ProfileService("", Duration.ofSeconds(10), 100);
+
+        assertEquals("user1", service.findByToken("token11"));
+        assertNull(service.findByToken("unknown"));
+    }
+
+    @Test
+    void shouldFindTokensInIndex() throws Exception {
+        var tokens = new HashMap<String, String>();
+        for (int i = 0; i < 10_000; i++) {
+            tokens.put("token" + i, "user" + i % 100);
+        }
+        tokens.put("токен", "користувач");
+        var file = dir.resolve("tokens.idx");
+        TokenIndex.write(file, tokens);
+        service = new ProfileService(file.toString(), Duration.ofSeconds(10), 100);
+
+        tokens.forEach((token, user) -> assertEquals(user, service.findByToken(token)));
+        assertNull(service.findByToken("token10000"));
+        assertNull(service.findByToken("token10000"));
+        assertNull(service.findByToken("токен1"));
+        assertEquals(10_001, TokenIndex.open(file).size());
+    }
+
+    @Test
+    void shouldSwapInChangedIndex() throws Exception {
+        var file = dir.resolve("tokens.idx");
+        TokenIndex.write(file, Map.of("old", "user1"));
+        service = new ProfileService(file.toString(), Duration.ofMillis(50), 100);
+        assertEquals("user1", service.findByToken("old"));
+        assertNull(service.findByToken("new"));
+
+        TokenIndex.write(file, Map.of("new", "user2"));
+        Thread.sleep(500);
+
+        assertEquals("user2", service.findByToken("new"));
+        assertNull(service.findByToken("old"));
+    }
+}
@@ -0,0 +1,53 @@
+package com.vlasenko.task.throttling;
+
+import com.vlasenko.task.throttling.sla.SlaService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LimitOverridesTest {
+
+    @Test
+    void shouldReplaceSnapshotWhenFileChanges(@TempDir Path directory) throws Exception {
+        var file = directory.resolve("overrides.properties");
+        Files.writeString(file, "guest-rps=5\nuser.user1=50\nuser.user2=60\n");
+        var overrides = new LimitOverrides(file.toString(), Duration.ofHours(1));
+        var changes = new ArrayList<Set<String>>();
+        overrides.addListener((previous, current) -> changes.add(current.getChangedUsers(previous)));
+
+        var snapshot = overrides.getSnapshot();
+        assertEquals(5, snapshot.getGuestRps(20));
+        assertEquals(50, snapshot.getRps(new SlaService.SLA("user1", 10)));
+        assertEquals(10, snapshot.getRps(new SlaService.SLA("user3", 10)));
+
+        overrides.reload();
+        assertSame(snapshot, overrides.getSnapshot());
+
+        Files.writeString(file, "user.user1=50\nuser.user2=70\nuser.user3=80\n");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(1)));
+        overrides.reload();
+        assertEquals(20, overrides.getSnapshot().getGuestRps(20));
+        assertEquals(80, overrides.getSnapshot().getRps(new SlaService.SLA("user3", 10)));
+        assertEquals(1, changes.size());
+        assertEquals(Set.of("user2", "user3"), changes.get(0));
+
+        Files.writeString(file, "user.user1=oops\n");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(2)));
+        assertThrows(NumberFormatException.class, overrides::reload);
+        assertEquals(70, overrides.getSnapshot().getRps(new SlaService.SLA("user2", 10)));
+        assertTrue(overrides.getSnapshot().hasUser("user1"));
+        overrides.shutdown();
+    }
+}
@@ -0,0 +1,100 @@
+package com.vlasenko.task.throttling;
+
+import com.vlasenko.task.throttling.clock.ManualClock;
+import com.vlasenko.task.throttling.limiter.FixedWindowLimiter;
+import com.vlasenko.task.throttling.limiter.LimiterAlgorithm;
+import com.vlasenko.task.throttling.sla.SlaService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuotaHierarchyTest {
+    private static final String ENDPOINT = "/greetings/{id}";
+
+    private final ManualClock clock = new ManualClock();
+    private QuotaHierarchy quotas;
+
+    @BeforeEach
+    void setUp() {
+        quotas = new QuotaHierarchy(
+                new LimiterFactory(LimiterAlgorithm.FIXED_WINDOW, 10_000, 0, null, 10, clock), 8,
+                Map.of(ENDPOINT, 6));
+        clock.nextSecond();
+    }
+
+    @Test
+    void shouldNotConsumeUserPermitsWhenOrganisationRejects() {
+        var organisation = quotas.getOrganisation(new SlaService.SLA("user1", 10, null, "acme", 3));
+        var user1 = new FixedWindowLimiter(10, clock);
+        var user2 = new FixedWindowLimiter(10, clock);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(quotas.tryAcquire(user1, organisation, null, 1));
+        }
+        assertFalse(quotas.tryAcquire(user2, organisation, null, 1));
+        assertFalse(quotas.tryAcquire(user1, organisation, null, 1));
+
+        assertEquals(9, user2.tryAcquire());
+        assertEquals(6, user1.tryAcquire());
+    }
+
+    @Test
+    void shouldReportUserStatusRejectedWhenOrganisationRejects() {
+        var organisation = quotas.getOrganisation(new SlaService.SLA("user", 10, null, "acme", 3));
+        var user = new FixedWindowLimiter(10, clock);
+
+        var status = quotas.tryAcquireStatus(user, organisation, null, 3);
+        assertTrue(RateLimitStatus.isAllowed(status));
+        assertEquals(7, RateLimitStatus.getRemaining(status));
+
+        status = quotas.tryAcquireStatus(user, organisation, null, 1);
+        assertFalse(RateLimitStatus.isAllowed(status));
+        assertEquals(10, RateLimitStatus.getLimit(status));
+        assertEquals(0, RateLimitStatus.getRemaining(status));
+        assertTrue(RateLimitStatus.getRetryAfter(status) >= 1);
+        assertEquals(6, user.tryAcquire());
+    }
+
+    @Test
+    void shouldGiveInnerLevelsBackWhenOuterOnesReject() {
+        var organisation = quotas.getOrganisation(new SlaService.SLA("user", 10, null, "acme", 100));
+        var endpoint = quotas.getEndpoint(ENDPOINT);
+        var user = new FixedWindowLimiter(10, clock);
+
+        assertTrue(quotas.tryAcquire(user, organisation, endpoint, 6));
+        // The endpoint rejects
+        assertFalse(quotas.tryAcquire(user, organisation, endpoint, 1));
+        // The global limit rejects
+        assertFalse(quotas.tryAcquire(user, organisation, null, 3));
+        assertTrue(quotas.tryAcquire(user, organisation, null, 2));
+
+        assertEquals(1, user.tryAcquire());
+        assertEquals(91, organisation.tryAcquire());
+    }
+
+    @Test
+    void shouldShareOrganisationLimiterAndReplaceItWhenLimitChanges() {
+        var sla = new SlaService.SLA("user1", 10, null, "acme", 3);
+        var organisation = quotas.getOrganisation(sla);
+
+        assertSame(organisation, quotas.getOrganisation(new SlaService.SLA("user2", 10, null, "acme", 3)));
+        assertNull(quotas.getOrganisation(new SlaService.SLA("user3", 10)));
+        assertNull(quotas.getEndpoint("/other"));
+
+        quotas.update(sla);
+        assertSame(organisation, quotas.getOrganisation(sla));
+        assertEquals(0, organisation.tryAcquire(3));
+        quotas.update(new SlaService.SLA("user1", 10, null, "acme", 5));
+        assertSame(organisation, quotas.getOrganisation(sla));
+        assertEquals(5, organisation.getLimit());
+        // Permits taken before the resize stay taken
+        assertEquals(0, organisation.tryAcquire(2));
+    }
+}
@@ -0,0 +1,32 @@
+package com.vlasenko.task.throttling;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class RateLimitStatusTest {
+
+    @Test
+    void shouldNeverEqualPending() {
+        var status = RateLimitStatus.of(true, Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+        assertNotEquals(RateLimitStatus.PENDING, status);
+        assertEquals(RateLimitStatus.MAX_LIMIT, RateLimitStatus.getLimit(status));
+        assertEquals(RateLimitStatus.MAX_REMAINING, RateLimitStatus.getRemaining(status));
+        assertEquals(RateLimitStatus.MAX_RETRY_AFTER, RateLimitStatus.getRetryAfter(status));
+    }
+
+    @Test
+    void shouldKeepLimitAndWaitOfRejectedStatus() {
+        var status = RateLimitStatus.rejected(RateLimitStatus.of(true, 10, 5, TimeUnit.SECONDS.toNanos(2)));
+
+        assertFalse(RateLimitStatus.isAllowed(status));
+        assertEquals(10, RateLimitStatus.getLimit(status));
+        assertEquals(0, RateLimitStatus.getRemaining(status));
+        assertEquals(2, RateLimitStatus.getRetryAfter(status));
+    }
+}
@@ -1,26 +1,48 @@
 package com.vlasenko.task.throttling;
 
 import com.vlasenko.task.profile.service.ProfileService;
+import com.vlasenko.task.throttling.audit.AuditEvent;
+import com.vlasenko.task.throttling.audit.AuditLog;
+import com.vlasenko.task.throttling.clock.ManualClock;
+import com.vlasenko.task.throttling.limiter.CountMinSketchLimiter;
+import com.vlasenko.task.throttling.limiter.LimiterAlgorithm;
+import com.vlasenko.task.throttling.limiter.OffHeapLimiterTable;
+import com.vlasenko.task.throttling.metrics.ThrottlingMetrics;
+import com.vlasenko.task.throttling.pace.Pacer;
+import com.vlasenko.task.throttling.sla.SlaLoader;
 import com.vlasenko.task.throttling.sla.SlaService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
 
-import java.time.LocalTime;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -34,11 +56,80 @@ class ThrottlingServiceImplTest {
 
     private final int guestRps = 5;
 
+    private final ThrottlingMetrics metrics = new ThrottlingMetrics();
+
+    private final ManualClock clock = new ManualClock();
+
     private ThrottlingService service;
 
     @BeforeEach
     void setUp() {
-        service = new ThrottlingServiceImpl(guestRps, slaService, profileService);
+        service = new ServiceBuilder().build();
+    }
+
+    private LimiterFactory limiterFactory() {
+        return new LimiterFactory(LimiterAlgorithm.FIXED_WINDOW, 10_000, 0, null, 10, clock);
+    }
+
+    private SlaLoader slaLoader() {
+        return new SlaLoader(slaService, Duration.ofSeconds(10), 1, Duration.ofMillis(100), Duration.ofSeconds(30),
+                20, Duration.ofSeconds(10), metrics);
+    }
+
+    /**
+     * Builds the service with the collaborators of {@link #setUp()} unless a test sets its own.
+     */
+    private class ServiceBuilder {
+        private UserLimiterCache userRpsCache = new UserLimiterCache(1000, Duration.ofMinutes(10),
+                Duration.ofMinutes(5));
+        private OffHeapLimiterTable offHeapLimiters;
+        private CountMinSketchLimiter clientLimiter;
+        private Map<String, Integer> endpointLimits = Map.of();
+        private LimitOverrides overrides = LimitOverrides.NONE;
+        private Pacer pacer;
+        private AuditLog auditLog;
+
+        ServiceBuilder userRpsCache(UserLimiterCache userRpsCache) {
+            this.userRpsCache = userRpsCache;
+            return this;
+        }
+
+        ServiceBuilder offHeapLimiters(OffHeapLimiterTable offHeapLimiters) {
+            this.offHeapLimiters = offHeapLimiters;
+            return this;
+        }
+
+        ServiceBuilder clientLimiter(CountMinSketchLimiter clientLimiter) {
+            this.clientLimiter = clientLimiter;
+            return this;
+        }
+
+        ServiceBuilder endpointLimits(Map<String, Integer> endpointLimits) {
+            this.endpointLimits = endpointLimits;
+            return this;
+        }
+
+        ServiceBuilder overrides(LimitOverrides overrides) {
+            this.overrides = overrides;
+            return this;
+        }
+
+        ServiceBuilder pacer(Pacer pacer) {
+            this.pacer = pacer;
+            return this;
+        }
+
+        ServiceBuilder auditLog(AuditLog auditLog) {
+            this.auditLog = auditLog;
+            return this;
+        }
+
+        ThrottlingService build() {
+            var factory = limiterFactory();
+            return new ThrottlingServiceImpl(guestRps, factory, slaLoader(), profileService, userRpsCache, metrics,
+                    offHeapLimiters, clientLimiter, new QuotaHierarchy(factory, 0, endpointLimits), overrides, pacer,
+                    auditLog);
+        }
     }
 
     @Test
@@ -48,7 +139,7 @@ class ThrottlingServiceImplTest {
 
     @Test
     void shouldAllowGuestAccessForUnderLimitRps() {
-        waitTillTheStartOfTheSecond();
+        clock.nextSecond();
 
         for (int i = 0; i < guestRps; i++) {
             assertTrue(service.isRequestAllowed(Optional.empty()));
@@ -57,7 +148,7 @@ class ThrottlingServiceImplTest {
 
     @Test
     void shouldNotAllowGuestAccessIfExceededRps() {
-        waitTillTheStartOfTheSecond();
+        clock.nextSecond();
 
         for (int i = 0; i < guestRps; i++) {
             service.isRequestAllowed(Optional.empty());
@@ -67,12 +158,12 @@ class ThrottlingServiceImplTest {
 
     @Test
     void shouldAllowGuestAccessOnTheNextSecondAfterExceededRps() {
-        waitTillTheStartOfTheSecond();
+        clock.nextSecond();
         for (int i = 0; i < guestRps; i++) {
             service.isRequestAllowed(Optional.empty());
         }
 
-        waitTillTheStartOfTheSecond();
+        clock.nextSecond();
         for (int i = 0; i < guestRps; i++) {
             assertTrue(service.isRequestAllowed(Optional.empty()));
         }
@@ -83,7 +174,7 @@ class ThrottlingServiceImplTest {
         var allowed = new AtomicInteger();
         var rejected = new AtomicInteger();
         var countDownLatch = new CountDownLatch(5);
-        waitTillTheStartOfTheSecond();
+        clock.nextSecond();
 
         for (int i = 0; i < 5; i++) {
             new Thread(() -> {
@@ -103,11 +194,96 @@ class ThrottlingServiceImplTest {
         assertEquals(10, rejected.get());
     }
 
+    @Test
+    void shouldThrottleUnknownTokensAsGuests() {
+        clock.nextSecond();
+        for (int i = 0; i < guestRps; i++) {
+            assertTrue(service.isRequestAllowed(Optional.of("unknown")));
+        }
+        assertFalse(service.isRequestAllowed(Optional.empty()));
+        verifyNoInteractions(slaService);
+    }
+
+    @Test
+    void shouldLimitEveryGuestClientOnItsOwn() {
+        service = new ServiceBuilder().clientLimiter(new CountMinSketchLimiter(1, 0.001, 0.01, clock)).build();
+        clock.nextSecond();
+
+        assertTrue(service.isRequestAllowed(Optional.empty(), "10.0.0.0"));
+        assertFalse(service.isRequestAllowed(Optional.empty(), "10.0.0.0"));
+        for (int i = 1; i < guestRps; i++) {
+            assertTrue(service.isRequestAllowed(Optional.empty(), "10.0.0." + i));
+        }
+        // Shared guest limit still applies
+        assertFalse(service.isRequestAllowed(Optional.empty(), "10.0.0.255"));
+    }
+
+    @Test
+    void shouldTakeWeightedPermits() {
+        var token = "tok";
+        var user = "user";
+        var future = new CompletableFuture<SlaService.SLA>();
+        when(profileService.findByToken(token)).thenReturn(user);
+        when(slaService.getSlaByToken(token)).thenReturn(future);
+        service.tryAcquire(token, 1);
+        future.complete(new SlaService.SLA(user, 100));
+        clock.nextSecond();
+
+        assertTrue(service.tryAcquire(token, 60));
+        assertFalse(service.tryAcquire(token, 41));
+        assertTrue(service.tryAcquire(token, 40));
+        assertTrue(service.tryAcquire(null, guestRps));
+        assertFalse(service.tryAcquire(null, 1));
+    }
+
+    @Test
+    void shouldDecideBulkRequestsOncePerUser() {
+        var user1 = "user1";
+        var user2 = "user2";
+        var future1 = new CompletableFuture<SlaService.SLA>();
+        var future2 = new CompletableFuture<SlaService.SLA>();
+        when(profileService.findByToken("token11")).thenReturn(user1);
+        when(profileService.findByToken("token12")).thenReturn(user1);
+        when(profileService.findByToken("token2")).thenReturn(user2);
+        when(slaService.getSlaByToken("token11")).thenReturn(future1);
+        when(slaService.getSlaByToken("token2")).thenReturn(future2);
+        service.tryAcquireAll(new String[]{"token11", "token2"}, null, null, new int[]{1, 1});
+        future1.complete(new SlaService.SLA(user1, 10));
+        future2.complete(new SlaService.SLA(user2, 10));
+        clock.nextSecond();
+
+        var allowed = service.tryAcquireAll(new String[]{"token11", "token2", "token12", null, "token2", "token2"},
+                null, null, new int[]{4, 8, 6, 2, 3, 2});
+
+        // user1 takes 10 of 10 at once, user2 asks for 13 of 10 and gets 8 and 2 in, guests take 2
+        assertArrayEquals(new boolean[]{true, true, true, true, false, true}, allowed);
+        assertFalse(service.tryAcquire("token12", 1));
+        assertFalse(service.tryAcquire("token2", 1));
+        assertTrue(service.tryAcquire(null, 3));
+    }
+
+    @Test
+    void shouldHoldBulkGuestsToTheirClientAndEndpointLimits() {
+        service = new ServiceBuilder()
+                .clientLimiter(new CountMinSketchLimiter(2, 0.001, 0.01, clock))
+                .endpointLimits(Map.of("/limited", 3))
+                .build();
+        clock.nextSecond();
+
+        var allowed = service.tryAcquireAll(new String[]{null, null, null, null},
+                new String[]{"10.0.0.1", "10.0.0.1", "10.0.0.1", "10.0.0.2"}, "/limited", new int[]{1, 1, 1, 1});
+
+        // The first client gets 2 of its 3 in, the second one takes the last permit of the endpoint budget
+        assertArrayEquals(new boolean[]{true, true, false, true}, allowed);
+        assertFalse(service.tryAcquire(null, "10.0.0.3", "/limited", 1));
+        assertTrue(service.tryAcquire(null, "10.0.0.3", "/other", 1));
+    }
+
     @Test
     void shouldAllowAsGuestIfFirstTimeUser() {
         var token = "tok";
         var user = "user";
-        when(profileService.findByToken(token)).thenReturn(Optional.of(user));
+        when(profileService.findByToken(token)).thenReturn(user);
         when(slaService.getSlaByToken(token)).thenReturn(new CompletableFuture<>());
 
         assertTrue(service.isRequestAllowed(Optional.of(token)));
@@ -117,7 +293,7 @@ class ThrottlingServiceImplTest {
     void shouldAllowAsGuestUntilUserRpsIsEvaluated() {
         var token = "tok";
         var user = "user";
-        when(profileService.findByToken(token)).thenReturn(Optional.of(user));
+        when(profileService.findByToken(token)).thenReturn(user);
         when(slaService.getSlaByToken(token)).thenReturn(new CompletableFuture<>());
 
         for (int i = 0; i < guestRps; i++) {
@@ -129,9 +305,9 @@ class ThrottlingServiceImplTest {
     void shouldNotAllowUserAsGuestIfGuestRpsExceeded() {
         var token = "tok";
         var user = "user";
-        when(profileService.findByToken(token)).thenReturn(Optional.of(user));
+        when(profileService.findByToken(token)).thenReturn(user);
         when(slaService.getSlaByToken(token)).thenReturn(new CompletableFuture<>());
-        waitTillTheStartOfTheSecond();
+        clock.nextSecond();
 
         for (int i = 0; i < guestRps; i++) {
             assertTrue(service.isRequestAllowed(Optional.empty()));
@@ -144,18 +320,42 @@ class ThrottlingServiceImplTest {
         var token = "tok";
         var user = "user";
         var future = new CompletableFuture<SlaService.SLA>();
-        when(profileService.findByToken(token)).thenReturn(Optional.of(user));
+        when(profileService.findByToken(token)).thenReturn(user);
         when(slaService.getSlaByToken(token)).thenReturn(future);
 
         // Create future
         service.isRequestAllowed(Optional.of(token));
         // Cache user's RPS
         future.complete(new SlaService.SLA(user, 10));
-        waitTillTheStartOfTheSecond();
+        clock.nextSecond();
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(service.isRequestAllowed(Optional.of(token)));
+        }
+    }
+
+    @Test
+    void shouldKeepUsersOnHeapWhenOffHeapTableIsFull() {
+        var table = new OffHeapLimiterTable(2, Duration.ofMinutes(10), Duration.ofMinutes(5), clock);
+        table.put("user1", 1);
+        table.put("user2", 1);
+        service = new ServiceBuilder().offHeapLimiters(table).build();
+        var token = "tok";
+        var user = "user3";
+        when(profileService.findByToken(token)).thenReturn(user);
+        when(slaService.getSlaByToken(token))
+                .thenReturn(CompletableFuture.completedFuture(new SlaService.SLA(user, 10)));
 
+        service.isRequestAllowed(Optional.of(token));
+        clock.nextSecond();
         for (int i = 0; i < 10; i++) {
             assertTrue(service.isRequestAllowed(Optional.of(token)));
         }
+        assertFalse(service.isRequestAllowed(Optional.of(token)));
+
+        verify(slaService, times(1)).getSlaByToken(token);
+        assertEquals(1, metrics.getOffHeapOverflows());
+        assertTrue(table.find(user) < 0);
     }
 
     @Test
@@ -163,14 +363,14 @@ class ThrottlingServiceImplTest {
         var token = "tok";
         var user = "user";
         var future = new CompletableFuture<SlaService.SLA>();
-        when(profileService.findByToken(token)).thenReturn(Optional.of(user));
+        when(profileService.findByToken(token)).thenReturn(user);
         when(slaService.getSlaByToken(token)).thenReturn(future);
 
         // Create future
         service.isRequestAllowed(Optional.of(token));
         // Cache user's RPS
         future.complete(new SlaService.SLA(user, 10));
-        waitTillTheStartOfTheSecond();
+        clock.nextSecond();
 
         for (int i = 0; i < 10; i++) {
             service.isRequestAllowed(Optional.of(token));
@@ -183,38 +383,158 @@ class ThrottlingServiceImplTest {
         var token = "tok";
         var user = "user";
         var future = new CompletableFuture<SlaService.SLA>();
-        when(profileService.findByToken(token)).thenReturn(Optional.of(user));
+        when(profileService.findByToken(token)).thenReturn(user);
         when(slaService.getSlaByToken(token)).thenReturn(future);
 
         // Create future
         service.isRequestAllowed(Optional.of(token));
         // Cache user's RPS
         future.complete(new SlaService.SLA(user, 2));
-        waitTillTheStartOfTheSecond();
+        clock.nextSecond();
         for (int i = 0; i < 2; i++) {
             service.isRequestAllowed(Optional.of(token));
         }
         assertFalse(service.isRequestAllowed(Optional.of(token)));
 
-        waitTillTheStartOfTheSecond();
+        clock.nextSecond();
         for (int i = 0; i < 2; i++) {
             service.isRequestAllowed(Optional.of(token));
         }
         assertFalse(service.isRequestAllowed(Optional.of(token)));
     }
 
+    @Test
+    void shouldLimitUsersByOrganisationAndEndpoint() {
+        service = new ServiceBuilder().endpointLimits(Map.of("/limited", 2)).build();
+        when(profileService.findByToken(anyString())).then(invocation -> invocation.getArgument(0));
+        when(slaService.getSlaByToken(anyString())).then(invocation -> CompletableFuture.completedFuture(
+                new SlaService.SLA(invocation.getArgument(0), 5, null, "acme", 3)));
+        service.isRequestAllowed(Optional.of("user1"));
+        service.isRequestAllowed(Optional.of("user2"));
+        clock.nextSecond();
+
+        assertTrue(service.tryAcquire("user1", null, "/limited", 1));
+        assertTrue(service.tryAcquire("user2", null, "/limited", 1));
+        assertFalse(service.tryAcquire("user1", null, "/limited", 1));
+        assertTrue(service.tryAcquire("user2", null, "/other", 1));
+        assertFalse(service.tryAcquire("user1", null, "/other", 1));
+        assertTrue(service.tryAcquire(null, null, "/other", 1));
+    }
+
+    @Test
+    void shouldLimitOffHeapUsersByOrganisation() {
+        var table = new OffHeapLimiterTable(16, Duration.ofMinutes(10), Duration.ofMinutes(5), clock);
+        service = new ServiceBuilder().offHeapLimiters(table).build();
+        when(profileService.findByToken(anyString())).then(invocation -> invocation.getArgument(0));
+        when(slaService.getSlaByToken(anyString())).then(invocation -> CompletableFuture.completedFuture(
+                new SlaService.SLA(invocation.getArgument(0), 5, null, "acme", 3)));
+        service.isRequestAllowed(Optional.of("user1"));
+        service.isRequestAllowed(Optional.of("user2"));
+        clock.nextSecond();
+
+        assertTrue(service.isRequestAllowed(Optional.of("user1")));
+        assertTrue(service.isRequestAllowed(Optional.of("user1")));
+        assertTrue(service.isRequestAllowed(Optional.of("user2")));
+        assertFalse(service.isRequestAllowed(Optional.of("user2")));
+        assertTrue(table.find("user2") >= 0);
+    }
+
+    @Test
+    void shouldApplyGuestLimitOverrideWithoutRestart(@TempDir Path directory) throws Exception {
+        var file = directory.resolve("overrides.properties");
+        Files.writeString(file, "guest-rps=2\n");
+        var overrides = new LimitOverrides(file.toString(), Duration.ofHours(1));
+        service = new ServiceBuilder().overrides(overrides).build();
+        clock.nextSecond();
+
+        assertTrue(service.isRequestAllowed(Optional.empty()));
+        assertTrue(service.isRequestAllowed(Optional.empty()));
+        assertFalse(service.isRequestAllowed(Optional.empty()));
+
+        Files.writeString(file, "guest-rps=3\n");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(1)));
+        overrides.reload();
+        assertTrue(service.isRequestAllowed(Optional.empty()));
+        assertFalse(service.isRequestAllowed(Optional.empty()));
+        overrides.shutdown();
+    }
+
+    @Test
+    void shouldAuditRejectedRequests(@TempDir Path directory) throws Exception {
+        var auditLog = new AuditLog(clock, directory.toString(), 16, 0, DataSize.ofMegabytes(1), 1);
+        auditLog.start();
+        service = new ServiceBuilder().auditLog(auditLog).build();
+        clock.nextSecond();
+
+        for (int i = 0; i < guestRps + 1; i++) {
+            service.tryAcquire(null, null, "/greetings", 1);
+        }
+        auditLog.shutdown();
+
+        var events = AuditEvent.read(directory.resolve("audit-00000001.log"));
+        assertEquals(1, events.size());
+        assertEquals("/greetings", events.get(0).getEndpoint());
+        assertFalse(events.get(0).isAllowed());
+    }
+
+    @Test
+    void shouldDelayPacedUsersUntilPermitFreesUp() throws Exception {
+        var pacer = new Pacer(Set.of("paced"), Duration.ofSeconds(2), Duration.ofMillis(10), 64);
+        service = new ServiceBuilder().pacer(pacer).build();
+        when(profileService.findByToken(anyString())).then(invocation -> invocation.getArgument(0));
+        when(slaService.getSlaByToken(anyString())).then(invocation -> CompletableFuture.completedFuture(
+                new SlaService.SLA(invocation.getArgument(0), 1)));
+        service.isRequestAllowed(Optional.of("paced"));
+        service.isRequestAllowed(Optional.of("other"));
+        clock.nextSecond();
+
+        try {
+            assertTrue(service.isRequestAllowed(Optional.of("paced")));
+            assertTrue(service.isRequestAllowed(Optional.of("other")));
+            var paced = service.isRequestAllowedAsync(Optional.of("paced"), Duration.ZERO).toCompletableFuture();
+            var other = service.isRequestAllowedAsync(Optional.of("other"), Duration.ZERO).toCompletableFuture();
+
+            assertFalse(other.getNow(null).isAllowed());
+            assertFalse(paced.isDone());
+            clock.nextSecond();
+            assertTrue(paced.get(2, TimeUnit.SECONDS).isAllowed());
+        } finally {
+            pacer.shutdown();
+        }
+    }
+
+    @Test
+    void shouldRejectPacedUsersAfterMaxWait() throws Exception {
+        var pacer = new Pacer(Set.of("paced"), Duration.ofMillis(100), Duration.ofMillis(10), 64);
+        service = new ServiceBuilder().pacer(pacer).build();
+        when(profileService.findByToken(anyString())).then(invocation -> invocation.getArgument(0));
+        when(slaService.getSlaByToken(anyString())).thenReturn(
+                CompletableFuture.completedFuture(new SlaService.SLA("paced", 1)));
+        service.isRequestAllowed(Optional.of("paced"));
+        clock.nextSecond();
+
+        try {
+            assertTrue(service.isRequestAllowed(Optional.of("paced")));
+            var paced = service.isRequestAllowedAsync(Optional.of("paced"), Duration.ZERO).toCompletableFuture();
+
+            assertFalse(paced.get(1, TimeUnit.SECONDS).isAllowed());
+        } finally {
+            pacer.shutdown();
+        }
+    }
+
     @Test
     void shouldUseSameUserDataForDifferentUserTokens() {
         var user = "user";
         var future = new CompletableFuture<SlaService.SLA>();
-        when(profileService.findByToken(anyString())).thenReturn(Optional.of(user));
+        when(profileService.findByToken(anyString())).thenReturn(user);
         when(slaService.getSlaByToken(anyString())).thenReturn(future);
 
         // Create future
         service.isRequestAllowed(Optional.of("123"));
         // Cache user's RPS
         future.complete(new SlaService.SLA(user, 1));
-        waitTillTheStartOfTheSecond();
+        clock.nextSecond();
 
         assertTrue(service.isRequestAllowed(Optional.of("one")));
         assertFalse(service.isRequestAllowed(Optional.of("two")));
@@ -232,9 +552,9 @@ class ThrottlingServiceImplTest {
         var future2 = new CompletableFuture<SlaService.SLA>();
         when(profileService.findByToken(anyString())).then(invocation -> {
             if (invocation.getArgument(0).equals(token1)) {
-                return Optional.of(user1);
+                return user1;
             }
-            return Optional.of(user2);
+            return user2;
         });
         when(slaService.getSlaByToken(anyString())).then(invocation -> {
             if (invocation.getArgument(0).equals(token1)) {
@@ -249,7 +569,7 @@ class ThrottlingServiceImplTest {
         // Cache user's RPS
         future1.complete(new SlaService.SLA(user1, 1));
         future2.complete(new SlaService.SLA(user2, 2));
-        waitTillTheStartOfTheSecond();
+        clock.nextSecond();
 
         assertTrue(service.isRequestAllowed(Optional.of(token1)));
         assertFalse(service.isRequestAllowed(Optional.of(token1)));
@@ -259,6 +579,114 @@ class ThrottlingServiceImplTest {
         assertFalse(service.isRequestAllowed(Optional.of(token2)));
     }
 
+    @Test
+    void shouldKeepUserRpsWhileSlaIsRefreshed() {
+        var token = "tok";
+        var user = "user";
+        var future = new CompletableFuture<SlaService.SLA>();
+        when(profileService.findByToken(token)).thenReturn(user);
+        when(slaService.getSlaByToken(token)).thenReturn(future, new CompletableFuture<>());
+        service = new ServiceBuilder()
+                .userRpsCache(new UserLimiterCache(1000, Duration.ofMinutes(10), Duration.ZERO))
+                .build();
+
+        // Create future
+        service.isRequestAllowed(Optional.of(token));
+        // Cache user's RPS
+        future.complete(new SlaService.SLA(user, 10));
+        clock.nextSecond();
+
+        // The first call starts a refresh that never completes, the user still gets his own RPS meanwhile
+        for (int i = 0; i < 10; i++) {
+            assertTrue(service.isRequestAllowed(Optional.of(token)));
+        }
+        assertFalse(service.isRequestAllowed(Optional.of(token)));
+        verify(slaService, times(2)).getSlaByToken(token);
+    }
+
+    @Test
+    void shouldCountDecisionsPerRequestClass() {
+        var token = "tok";
+        var user = "user";
+        var future = new CompletableFuture<SlaService.SLA>();
+        when(profileService.findByToken(token)).thenReturn(user);
+        when(slaService.getSlaByToken(token)).thenReturn(future);
+        clock.nextSecond();
+
+        service.isRequestAllowed(Optional.of(token));
+        future.complete(new SlaService.SLA(user, 1));
+        service.isRequestAllowed(Optional.of(token));
+        service.isRequestAllowed(Optional.of(token));
+        for (int i = 0; i < guestRps; i++) {
+            service.isRequestAllowed(Optional.empty());
+        }
+
+        assertEquals(1, metrics.getAllowed(ThrottlingMetrics.RequestClass.PENDING_SLA));
+        assertEquals(1, metrics.getAllowed(ThrottlingMetrics.RequestClass.USER));
+        assertEquals(1, metrics.getRejected(ThrottlingMetrics.RequestClass.USER));
+        assertEquals(guestRps - 1, metrics.getAllowed(ThrottlingMetrics.RequestClass.GUEST));
+        assertEquals(1, metrics.getRejected(ThrottlingMetrics.RequestClass.GUEST));
+    }
+
+    @Test
+    void shouldWaitForPendingSlaWhenDecidingAsynchronously() throws Exception {
+        var token = "tok";
+        var user = "user";
+        var future = new CompletableFuture<SlaService.SLA>();
+        when(profileService.findByToken(token)).thenReturn(user);
+        when(slaService.getSlaByToken(token)).thenReturn(future);
+        clock.nextSecond();
+        for (int i = 0; i < guestRps; i++) {
+            service.isRequestAllowed(Optional.empty());
+        }
+
+        var decision = service.isRequestAllowedAsync(Optional.of(token), Duration.ofSeconds(5)).toCompletableFuture();
+        assertFalse(decision.isDone());
+        future.complete(new SlaService.SLA(user, 10));
+
+        assertTrue(decision.get(1, TimeUnit.SECONDS).isAllowed());
+    }
+
+    @Test
+    void shouldDecideAsGuestIfSlaIsNotLoadedInTime() throws Exception {
+        var token = "tok";
+        var user = "user";
+        when(profileService.findByToken(token)).thenReturn(user);
+        when(slaService.getSlaByToken(token)).thenReturn(new CompletableFuture<>());
+        clock.nextSecond();
+        for (int i = 0; i < guestRps; i++) {
+            service.isRequestAllowed(Optional.empty());
+        }
+
+        var decision = service.isRequestAllowedAsync(Optional.of(token), Duration.ofMillis(50));
+        assertFalse(decision.toCompletableFuture().get(1, TimeUnit.SECONDS).isAllowed());
+    }
+
+    @Test
+    void shouldReportLimitAndPermitsLeftOfTheDecision() {
+        clock.nextSecond();
+
+        var status = service.tryAcquireStatus(null, null, null, 2);
+        assertTrue(RateLimitStatus.isAllowed(status));
+        assertEquals(guestRps, RateLimitStatus.getLimit(status));
+        assertEquals(guestRps - 2, RateLimitStatus.getRemaining(status));
+        assertEquals(1, RateLimitStatus.getRetryAfter(status));
+
+        status = service.tryAcquireStatus(null, null, null, guestRps, Duration.ZERO, null, (context, decision) -> {
+            throw new AssertionError("Guests do not wait");
+        });
+        assertFalse(RateLimitStatus.isAllowed(status));
+        assertEquals(guestRps, RateLimitStatus.getLimit(status));
+        assertEquals(0, RateLimitStatus.getRemaining(status));
+        assertEquals(1, RateLimitStatus.getRetryAfter(status));
+    }
+
+    @Test
+    void shouldDecideImmediatelyForGuestsAndCachedUsers() {
+        assertTrue(service.isRequestAllowedAsync(Optional.empty(), Duration.ofSeconds(5)).toCompletableFuture()
+                .getNow(null).isAllowed());
+    }
+
     @Test
     void shouldEvaluateGuestsWithAverage5msTime() {
         List<Long> list = new ArrayList<>(1000);
@@ -280,9 +708,9 @@ class ThrottlingServiceImplTest {
         var future2 = new CompletableFuture<SlaService.SLA>();
         when(profileService.findByToken(anyString())).then(invocation -> {
             if (invocation.getArgument(0).equals(token1)) {
-                return Optional.of(user1);
+                return user1;
             }
-            return Optional.of(user2);
+            return user2;
         });
         when(slaService.getSlaByToken(anyString())).then(invocation -> {
             if (invocation.getArgument(0).equals(token1)) {
@@ -307,11 +735,4 @@ class ThrottlingServiceImplTest {
 
         assertTrue(list.stream().mapToLong(Long::valueOf).average().orElse(100) <= 5.0);
     }
-
-    private void waitTillTheStartOfTheSecond() {
-        try {
-            Thread.sleep(1001 - LocalTime.now().getNano() / 1_000_000);
-        } catch (InterruptedException ignored) {
-        }
-    }
 }
@@ -0,0 +1,85 @@
+package com.vlasenko.task.throttling;
+
+import com.vlasenko.task.throttling.clock.ManualClock;
+import com.vlasenko.task.throttling.limiter.FixedWindowLimiter;
+import com.vlasenko.task.throttling.limiter.LimiterAlgorithm;
+import com.vlasenko.task.throttling.sla.SlaService;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+class UserLimiterCacheTest {
+    private final LimiterFactory limiterFactory = spy(
+            new LimiterFactory(LimiterAlgorithm.FIXED_WINDOW, 10_000, 0, null, 10, new ManualClock()));
+
+    @Test
+    void shouldCountHitsAndMisses() {
+        var cache = new UserLimiterCache(10, Duration.ofMinutes(10), Duration.ofMinutes(5));
+        cache.put(new SlaService.SLA("user", 5), limiterFactory);
+
+        assertNull(cache.getIfPresent("other"));
+        assertEquals(5, cache.getIfPresent("user").getLimiter().getLimit());
+        assertEquals(1, cache.getStats().hitCount());
+        assertEquals(1, cache.getStats().missCount());
+    }
+
+    @Test
+    void shouldEvictUsersAboveMaximumSize() throws Exception {
+        var cache = new UserLimiterCache(10, Duration.ofMinutes(10), Duration.ofMinutes(5));
+        for (int i = 0; i < 100; i++) {
+            cache.put(new SlaService.SLA("user" + i, 5), limiterFactory);
+        }
+
+        // Eviction runs in background
+        for (int i = 0; i < 100 && cache.getEstimatedSize() > 10; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(10, cache.getEstimatedSize());
+        assertEquals(90, cache.getStats().evictionCount());
+    }
+
+    @Test
+    void shouldKeepLimiterWhenReloadedSlaIsTheSame() {
+        var cache = new UserLimiterCache(10, Duration.ofMinutes(10), Duration.ZERO);
+        cache.put(new SlaService.SLA("user", 5), limiterFactory);
+        var cached = cache.getIfPresent("user");
+
+        assertTrue(cache.startRefresh(cached));
+        assertFalse(cache.startRefresh(cached));
+        cache.put(new SlaService.SLA("user", 5), limiterFactory);
+        assertSame(cached, cache.getIfPresent("user"));
+        assertTrue(cache.startRefresh(cached));
+
+        cache.put(new SlaService.SLA("user", 7), limiterFactory);
+        assertNotSame(cached, cache.getIfPresent("user"));
+        assertEquals(7, cache.getIfPresent("user").getLimiter().getLimit());
+        assertSame(cached.getLimiter(), cache.getIfPresent("user").getLimiter());
+    }
+
+    @Test
+    void shouldCreateLimiterOnlyWhenAlgorithmChanges() {
+        var cache = new UserLimiterCache(10, Duration.ofMinutes(10), Duration.ZERO);
+        cache.put(new SlaService.SLA("user", 5, LimiterAlgorithm.TOKEN_BUCKET), limiterFactory);
+        var limiter = cache.getIfPresent("user").getLimiter();
+        verify(limiterFactory).create(any());
+
+        cache.put(new SlaService.SLA("user", 7, LimiterAlgorithm.TOKEN_BUCKET), limiterFactory);
+        verify(limiterFactory).create(any());
+        assertSame(limiter, cache.getIfPresent("user").getLimiter());
+        assertEquals(7, limiter.getLimit());
+
+        cache.put(new SlaService.SLA("user", 7, LimiterAlgorithm.FIXED_WINDOW), limiterFactory);
+        assertNotSame(limiter, cache.getIfPresent("user").getLimiter());
+        assertTrue(cache.getIfPresent("user").getLimiter() instanceof FixedWindowLimiter);
+    }
+}
@@ -0,0 +1,62 @@
+package com.vlasenko.task.throttling;
+
+import com.vlasenko.task.throttling.clock.ManualClock;
+import com.vlasenko.task.throttling.limiter.LimiterAlgorithm;
+import com.vlasenko.task.throttling.limiter.TokenBucketLimiter;
+import com.vlasenko.task.throttling.sla.SlaService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UserLimiterSnapshotterTest {
+    @TempDir
+    Path dir;
+
+    private final ManualClock clock = new ManualClock();
+    private final LimiterFactory limiterFactory = new LimiterFactory(LimiterAlgorithm.FIXED_WINDOW, 10_000, 0, null, 10,
+            clock);
+
+    @Test
+    void shouldRestoreSlasAndWindowCounts() throws Exception {
+        clock.nextSecond();
+        var file = dir.resolve("limiters.snapshot").toString();
+        var cache = cache();
+        cache.put(new SlaService.SLA("user1", 3), limiterFactory);
+        cache.put(new SlaService.SLA("user2", 5, LimiterAlgorithm.TOKEN_BUCKET), limiterFactory);
+        cache.getIfPresent("user1").getLimiter().tryAcquire();
+        cache.getIfPresent("user1").getLimiter().tryAcquire();
+        var snapshotter = new UserLimiterSnapshotter(cache, limiterFactory, file, Duration.ofMinutes(1));
+        assertEquals(2, snapshotter.write());
+        snapshotter.shutdown();
+
+        var restored = cache();
+        new UserLimiterSnapshotter(restored, limiterFactory, file, Duration.ofMinutes(1)).shutdown();
+
+        var user1 = restored.getIfPresent("user1");
+        assertEquals(3, user1.getSla().getRps());
+        assertEquals(0, user1.getLimiter().tryAcquire());
+        assertTrue(user1.getLimiter().tryAcquire() < 0);
+        var user2 = restored.getIfPresent("user2");
+        assertEquals(LimiterAlgorithm.TOKEN_BUCKET, user2.getSla().getAlgorithm());
+        assertEquals(TokenBucketLimiter.class, user2.getLimiter().getClass());
+        assertFalse(restored.startRefresh(user1));
+    }
+
+    @Test
+    void shouldStartEmptyWithoutSnapshot() {
+        var cache = cache();
+        new UserLimiterSnapshotter(cache, limiterFactory, dir.resolve("missing").toString(), Duration.ofMinutes(1));
+
+        assertEquals(0, cache.getEstimatedSize());
+    }
+
+    private static UserLimiterCache cache() {
+        return new UserLimiterCache(1000, Duration.ofMinutes(10), Duration.ofMinutes(5));
+    }
+}
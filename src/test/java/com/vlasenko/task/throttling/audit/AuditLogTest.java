@@ -0,0 +1,93 @@
+package com.vlasenko.task.throttling.audit;
+
+import com.vlasenko.task.throttling.Hashes;
+import com.vlasenko.task.throttling.clock.ManualClock;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AuditLogTest {
+    private final ManualClock clock = new ManualClock();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldRecordRejectionsWithoutAllowsWhenNotSampled() throws Exception {
+        var auditLog = new AuditLog(clock, directory.toString(), 16, 0, DataSize.ofMegabytes(1), 10);
+        auditLog.start();
+        auditLog.record("token11", "user1", "/greetings", 2, false);
+        auditLog.record("token11", "user1", "/greetings", 1, true);
+        auditLog.record(null, null, null, 1, false);
+        auditLog.shutdown();
+
+        var events = readAll();
+        assertEquals(2, events.size());
+        var user = events.get(0);
+        assertEquals(clock.millis(), user.getTimestamp());
+        assertEquals(Hashes.key("token11"), user.getTokenHash());
+        assertEquals("user1", user.getUser());
+        assertEquals("/greetings", user.getEndpoint());
+        assertEquals(2, user.getPermits());
+        assertFalse(user.isAllowed());
+        var guest = events.get(1);
+        assertEquals(0, guest.getTokenHash());
+        assertNull(guest.getUser());
+        assertNull(guest.getEndpoint());
+    }
+
+    @Test
+    void shouldDropEventsInsteadOfWaitingWhenBufferIsFull() throws Exception {
+        var auditLog = new AuditLog(clock, directory.toString(), 4, 1, DataSize.ofMegabytes(1), 10);
+        for (int i = 0; i < 10; i++) {
+            auditLog.record("token" + i, "user" + i, null, 1, true);
+        }
+        assertEquals(6, auditLog.getDropped());
+
+        auditLog.start();
+        auditLog.shutdown();
+        assertEquals(List.of("user0", "user1", "user2", "user3"),
+                readAll().stream().map(AuditEvent::getUser).collect(Collectors.toList()));
+        assertEquals(4, auditLog.getWritten());
+    }
+
+    @Test
+    void shouldRotateFilesAndKeepNewestOnes() throws Exception {
+        var fileSize = DataSize.ofBytes(AuditEvent.HEADER_SIZE + 4 * AuditEvent.SIZE);
+        var auditLog = new AuditLog(clock, directory.toString(), 16, 0, fileSize, 2);
+        for (int i = 0; i < 10; i++) {
+            auditLog.record(null, "user" + i, null, 1, false);
+        }
+        auditLog.start();
+        auditLog.shutdown();
+
+        assertEquals(List.of("audit-00000002.log", "audit-00000003.log"), files().stream()
+                .map(file -> file.getFileName().toString()).collect(Collectors.toList()));
+        assertEquals(List.of("user4", "user5", "user6", "user7", "user8", "user9"),
+                readAll().stream().map(AuditEvent::getUser).collect(Collectors.toList()));
+    }
+
+    private List<Path> files() throws Exception {
+        try (var files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private List<AuditEvent> readAll() throws Exception {
+        var events = new ArrayList<AuditEvent>();
+        for (var file : files()) {
+            events.addAll(AuditEvent.read(file));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,37 @@
+package com.vlasenko.task.throttling.clock;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CoarseClockTest {
+
+    @Test
+    void shouldFollowSystemClockWithinResolution() throws Exception {
+        var clock = new CoarseClock(Duration.ofMillis(5));
+        try {
+            var previous = clock.millis();
+            for (int i = 0; i < 20; i++) {
+                Thread.sleep(10);
+                var now = clock.millis();
+                assertTrue(now >= previous);
+                // generous bound: the ticker may be descheduled on a busy machine
+                assertTrue(Clock.SYSTEM.millis() - now < 500);
+                previous = now;
+            }
+        } finally {
+            clock.shutdown();
+        }
+    }
+
+    @Test
+    void shouldCountNanosToNextSecond() {
+        var clock = new ManualClock();
+        clock.advance(Duration.ofMillis(250));
+
+        assertEquals(Duration.ofMillis(750).toNanos(), clock.nanosToNextSecond());
+    }
+}
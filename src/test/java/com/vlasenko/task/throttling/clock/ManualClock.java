@@ -0,0 +1,27 @@
+package com.vlasenko.task.throttling.clock;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clock that only moves when told to, starting at the beginning of a second.
+ */
+public class ManualClock implements Clock {
+    private final AtomicLong millis = new AtomicLong(1_600_000_000_000L);
+
+    @Override
+    public long millis() {
+        return millis.get();
+    }
+
+    public void advance(Duration duration) {
+        millis.addAndGet(duration.toMillis());
+    }
+
+    /**
+     * Moves to the beginning of the next second.
+     */
+    public void nextSecond() {
+        millis.updateAndGet(current -> (current / 1000 + 1) * 1000);
+    }
+}
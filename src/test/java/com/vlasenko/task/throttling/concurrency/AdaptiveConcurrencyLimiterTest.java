@@ -0,0 +1,98 @@
+package com.vlasenko.task.throttling.concurrency;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTest {
+    private static final long BASE_LATENCY = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final Duration WINDOW = Duration.ofMillis(100);
+
+    @Test
+    void shouldShedRequestsOverLimit() {
+        var limiter = limiter(4);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertFalse(limiter.tryAcquire());
+        limiter.release();
+        assertTrue(limiter.tryAcquire());
+        assertEquals(4, limiter.getInFlight());
+    }
+
+    @Test
+    void shouldSettleNearCapacityOfSlowHandler() {
+        var limiter = limiter(4);
+        var handler = new SlowHandler(16);
+
+        for (int round = 0; round < 200; round++) {
+            handler.serve(limiter);
+        }
+
+        assertTrue(limiter.getLimit() >= 16 && limiter.getLimit() <= 48, "limit " + limiter.getLimit());
+    }
+
+    @Test
+    void shouldShrinkWhenHandlerSlowsDown() {
+        var limiter = limiter(100);
+        var handler = new SlowHandler(100);
+        for (int round = 0; round < 20; round++) {
+            handler.serve(limiter);
+        }
+        var before = limiter.getLimit();
+
+        handler.capacity = 10;
+        for (int round = 0; round < 20; round++) {
+            handler.serve(limiter);
+        }
+
+        assertTrue(limiter.getLimit() < before / 2, before + " -> " + limiter.getLimit());
+    }
+
+    @Test
+    void shouldKeepLimitWhileMostOfItIsUnused() {
+        var limiter = limiter(20);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onComplete(BASE_LATENCY);
+        }
+
+        assertEquals(20, limiter.getLimit());
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(int initialLimit) {
+        return new AdaptiveConcurrencyLimiter(initialLimit, 1, 1000, 0.2, 1.5, WINDOW, 1, 600);
+    }
+
+    /**
+     * Serves requests in rounds of one window: a round takes in as many requests as the limiter lets in, and all
+     * of them take longer the more they exceed the handler's capacity.
+     */
+    private static class SlowHandler {
+        private int capacity;
+        private long now = System.nanoTime();
+
+        SlowHandler(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void serve(AdaptiveConcurrencyLimiter limiter) {
+            var inFlight = 0;
+            while (limiter.tryAcquire()) {
+                inFlight++;
+            }
+            var latency = BASE_LATENCY * Math.max(1.0, (double) inFlight / capacity);
+            now += WINDOW.toNanos();
+            for (int i = 0; i < inFlight; i++) {
+                limiter.onComplete((long) latency, now);
+            }
+        }
+    }
+}
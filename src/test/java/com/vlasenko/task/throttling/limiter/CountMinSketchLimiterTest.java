@@ -0,0 +1,108 @@
+package com.vlasenko.task.throttling.limiter;
+
+import com.vlasenko.task.throttling.clock.ManualClock;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CountMinSketchLimiterTest {
+    private final ManualClock clock = new ManualClock();
+
+    @Test
+    void shouldLimitEveryClientOnItsOwn() {
+        clock.nextSecond();
+        var limiter = new CountMinSketchLimiter(3, 0.001, 0.01, clock);
+
+        for (int i = 2; i >= 0; i--) {
+            assertEquals(i, limiter.tryAcquire("10.0.0.1"));
+        }
+        assertTrue(limiter.tryAcquire("10.0.0.1") < 0);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire("10.0.0.2") >= 0);
+        }
+        assertTrue(limiter.tryAcquire("10.0.0.2") < 0);
+    }
+
+    @Test
+    void shouldRefillOnTheNextSecond() {
+        clock.nextSecond();
+        var limiter = new CountMinSketchLimiter(1, 0.001, 0.01, clock);
+        limiter.tryAcquire("client");
+        assertTrue(limiter.tryAcquire("client") < 0);
+
+        clock.nextSecond();
+        assertEquals(0, limiter.tryAcquire("client"));
+    }
+
+    @Test
+    void shouldRarelyThrottleQuietClientsAmongMany() {
+        clock.nextSecond();
+        var limiter = new CountMinSketchLimiter(2, 0.0001, 0.01, clock);
+        // 10 000 requests: a quiet client is over-counted by more than 1 with a probability of at most 1%
+        for (int i = 0; i < 5_000; i++) {
+            limiter.tryAcquire("busy" + i);
+            limiter.tryAcquire("busy" + i);
+        }
+
+        var throttled = 0;
+        for (int i = 0; i < 1_000; i++) {
+            if (limiter.tryAcquire("quiet" + i) < 0) {
+                throttled++;
+            }
+        }
+        assertTrue(throttled < 30, "throttled " + throttled);
+    }
+
+    @Test
+    void shouldNotAllowMoreThanLimitForConcurrentAccess() throws Exception {
+        clock.nextSecond();
+        var limiter = new CountMinSketchLimiter(10, 0.001, 0.01, clock);
+        var allowed = new AtomicInteger();
+        var start = new CountDownLatch(1);
+        var countDownLatch = new CountDownLatch(8);
+
+        for (int i = 0; i < 8; i++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ignored) {
+                }
+                for (int j = 0; j < 50; j++) {
+                    if (limiter.tryAcquire("client") >= 0) {
+                        allowed.incrementAndGet();
+                    }
+                }
+                countDownLatch.countDown();
+            }).start();
+        }
+
+        start.countDown();
+        countDownLatch.await();
+        // Each of the racing requests may get in on top of the limit, but no more of them
+        assertTrue(allowed.get() >= 10 && allowed.get() <= 10 + 7, "allowed " + allowed.get());
+    }
+
+    @Test
+    void shouldTakeBackIncrementsOfRejectedRequests() {
+        clock.nextSecond();
+        var limiter = new CountMinSketchLimiter(2, 0.001, 0.01, clock);
+        limiter.tryAcquire("client", 2);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire("client") < 0);
+        }
+
+        limiter.release("client", 1);
+        assertEquals(0, limiter.tryAcquire("client"));
+    }
+
+    @Test
+    void shouldRefuseErrorsOutsideOfZeroToOne() {
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketchLimiter(1, 0, 0.01, clock));
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketchLimiter(1, 0.01, 1, clock));
+    }
+}
@@ -0,0 +1,138 @@
+package com.vlasenko.task.throttling.limiter;
+
+import com.vlasenko.task.throttling.clock.ManualClock;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapLimiterTableTest {
+    private final ManualClock clock = new ManualClock();
+
+    @Test
+    void shouldAllowExactlyLimitPerUser() {
+        clock.nextSecond();
+        var table = new OffHeapLimiterTable(1024, Duration.ofMinutes(10), Duration.ofMinutes(5), clock);
+        var first = table.put("user1", 5);
+        var second = table.put("user2", 3);
+        assertNotEquals(first, second);
+        assertEquals(first, table.find("user1"));
+        assertTrue(table.find("user3") < 0);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(4 - i, table.tryAcquire(first));
+        }
+        assertTrue(table.tryAcquire(first) < 0);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(table.tryAcquire(second) >= 0);
+        }
+        assertTrue(table.tryAcquire(second) < 0);
+        assertEquals(2, table.getSize());
+    }
+
+    @Test
+    void shouldKeepTakenPermitsWhenLimitIsUpdated() {
+        clock.nextSecond();
+        var table = new OffHeapLimiterTable(16, Duration.ofMinutes(10), Duration.ofMinutes(5), clock);
+        var slot = table.put("user", 2);
+        table.tryAcquire(slot);
+        table.tryAcquire(slot);
+
+        assertEquals(slot, table.put("user", 10));
+        assertEquals(10, table.getLimit(slot));
+        assertEquals(7, table.tryAcquire(slot));
+        assertEquals(slot, table.put("user", 4));
+        assertEquals(0, table.tryAcquire(slot));
+        assertTrue(table.tryAcquire(slot) < 0);
+
+        clock.nextSecond();
+        assertEquals(3, table.tryAcquire(slot));
+    }
+
+    @Test
+    void shouldStartNextWindowWithNewLimit() {
+        var table = new OffHeapLimiterTable(16, Duration.ofMinutes(10), Duration.ofMinutes(5), clock);
+        var slot = table.put("user", 10);
+        table.tryAcquire(slot, 4);
+
+        table.put("user", 6);
+        clock.nextSecond();
+        assertEquals(0, table.tryAcquire(slot, 6));
+        assertTrue(table.tryAcquire(slot) < 0);
+    }
+
+    @Test
+    void shouldKeepOrganisationWhenOnlyLimitIsSet() {
+        var table = new OffHeapLimiterTable(16, Duration.ofMinutes(10), Duration.ofMinutes(5), clock);
+        var slot = table.put("user", 5, 42, 100);
+        assertEquals(42, table.getOrganisation(slot));
+        assertEquals(100, table.getOrganisationRps(slot));
+
+        assertEquals(slot, table.put("user", 7));
+        assertEquals(7, table.getLimit(slot));
+        assertEquals(42, table.getOrganisation(slot));
+        assertEquals(0, table.getOrganisation(table.put("other", 5)));
+    }
+
+    @Test
+    void shouldRejectUsersWhenFull() {
+        var table = new OffHeapLimiterTable(2, Duration.ofMinutes(10), Duration.ofMinutes(5), clock);
+        assertTrue(table.put("user1", 1) >= 0);
+        assertTrue(table.put("user2", 1) >= 0);
+
+        assertTrue(table.put("user3", 1) < 0);
+        assertTrue(table.find("user3") < 0);
+    }
+
+    @Test
+    void shouldStartRefreshOnceUntilFailed() {
+        var table = new OffHeapLimiterTable(16, Duration.ofMinutes(10), Duration.ZERO, clock);
+        var slot = table.put("user", 1);
+        clock.nextSecond();
+
+        assertTrue(table.startRefresh(slot));
+        assertFalse(table.startRefresh(slot));
+
+        table.refreshFailed("user");
+        assertTrue(table.startRefresh(slot));
+
+        table.put("user", 1);
+        assertFalse(table.startRefresh(slot));
+    }
+
+    @Test
+    void shouldAllowExactlyLimitForConcurrentAccess() throws Exception {
+        clock.nextSecond();
+        var table = new OffHeapLimiterTable(1024, Duration.ofMinutes(10), Duration.ofMinutes(5), clock);
+        table.put("user", 1000);
+        var allowed = new AtomicInteger();
+        var start = new CountDownLatch(1);
+        var countDownLatch = new CountDownLatch(8);
+
+        for (int i = 0; i < 8; i++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ignored) {
+                }
+                var slot = table.find("user");
+                for (int j = 0; j < 500; j++) {
+                    if (table.tryAcquire(slot) >= 0) {
+                        allowed.incrementAndGet();
+                    }
+                }
+                countDownLatch.countDown();
+            }).start();
+        }
+
+        start.countDown();
+        countDownLatch.await();
+        assertEquals(1000, allowed.get());
+    }
+}
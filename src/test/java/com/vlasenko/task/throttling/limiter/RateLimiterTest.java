@@ -0,0 +1,170 @@
+package com.vlasenko.task.throttling.limiter;
+
+import com.vlasenko.task.throttling.RateLimitStatus;
+import com.vlasenko.task.throttling.clock.ManualClock;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+    private final ManualClock clock = new ManualClock();
+
+    @Test
+    void shouldAllowBurstOfLimitAndRejectTheRest() {
+        for (var algorithm : LimiterAlgorithm.values()) {
+            clock.nextSecond();
+            var limiter = algorithm.create(10, clock);
+
+            for (int i = 9; i >= 0; i--) {
+                assertEquals(i, limiter.tryAcquire(), algorithm.name());
+            }
+            assertTrue(limiter.tryAcquire() < 0, algorithm.name());
+            assertTrue(limiter.tryAcquire() < 0, algorithm.name());
+        }
+    }
+
+    @Test
+    void shouldTakeWeightedPermitsAllOrNothing() {
+        for (var algorithm : LimiterAlgorithm.values()) {
+            clock.nextSecond();
+            var limiter = algorithm.create(10, clock);
+
+            assertTrue(algorithm.create(10, clock).tryAcquire(11) < 0, algorithm.name());
+            assertEquals(6, limiter.tryAcquire(4), algorithm.name());
+            assertTrue(limiter.tryAcquire(7) < 0, algorithm.name());
+            assertEquals(0, limiter.tryAcquire(6), algorithm.name());
+            assertTrue(limiter.tryAcquire() < 0, algorithm.name());
+        }
+    }
+
+    @Test
+    void shouldGiveReleasedPermitsBackUpToLimit() {
+        for (var algorithm : LimiterAlgorithm.values()) {
+            clock.nextSecond();
+            var limiter = algorithm.create(10, clock);
+
+            assertEquals(0, limiter.tryAcquire(10), algorithm.name());
+            limiter.release(4);
+            assertTrue(limiter.tryAcquire(4) >= 0, algorithm.name());
+            assertTrue(limiter.tryAcquire() < 0, algorithm.name());
+
+            limiter.release(100);
+            assertTrue(limiter.tryAcquire(11) < 0, algorithm.name());
+        }
+    }
+
+    @Test
+    void shouldRejectEverythingForZeroLimit() {
+        for (var algorithm : LimiterAlgorithm.values()) {
+            assertTrue(algorithm.create(0, clock).tryAcquire() < 0, algorithm.name());
+        }
+    }
+
+    @Test
+    void shouldNotAllowMoreThanLimitForConcurrentAccess() throws Exception {
+        for (var algorithm : LimiterAlgorithm.values()) {
+            clock.nextSecond();
+            var limiter = algorithm.create(10, clock);
+            var allowed = new AtomicInteger();
+            var start = new CountDownLatch(1);
+            var countDownLatch = new CountDownLatch(8);
+
+            for (int i = 0; i < 8; i++) {
+                new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                    for (int j = 0; j < 50; j++) {
+                        if (limiter.tryAcquire() >= 0) {
+                            allowed.incrementAndGet();
+                        }
+                    }
+                    countDownLatch.countDown();
+                }).start();
+            }
+
+            start.countDown();
+            countDownLatch.await();
+            assertEquals(10, allowed.get(), algorithm.name());
+        }
+    }
+
+    @Test
+    void shouldCarryStateOverToNewLimiter() {
+        for (var algorithm : LimiterAlgorithm.values()) {
+            clock.nextSecond();
+            var limiter = algorithm.create(10, clock);
+            for (int i = 0; i < 8; i++) {
+                limiter.tryAcquire();
+            }
+
+            var restored = algorithm.create(10, clock);
+            restored.restoreState(limiter.exportState(), 0);
+            assertTrue(restored.tryAcquire() >= 0, algorithm.name());
+            assertTrue(restored.tryAcquire() >= 0, algorithm.name());
+            assertTrue(restored.tryAcquire() < 0, algorithm.name());
+        }
+    }
+
+    @Test
+    void shouldResizeKeepingTakenPermits() {
+        for (var algorithm : LimiterAlgorithm.values()) {
+            clock.nextSecond();
+            var limiter = algorithm.create(10, clock);
+            assertEquals(6, limiter.tryAcquire(4), algorithm.name());
+
+            limiter.resize(6);
+            assertEquals(6, limiter.getLimit(), algorithm.name());
+            assertTrue(limiter.tryAcquire(2) >= 0, algorithm.name());
+            assertTrue(limiter.tryAcquire() < 0, algorithm.name());
+
+            limiter.resize(20);
+            assertTrue(limiter.tryAcquire(14) >= 0, algorithm.name());
+            assertTrue(limiter.tryAcquire() < 0, algorithm.name());
+        }
+    }
+
+    @Test
+    void shouldStartNextWindowWithResizedLimit() {
+        var limiter = new FixedWindowLimiter(10, clock);
+        limiter.tryAcquire(4);
+
+        limiter.resize(6);
+        clock.nextSecond();
+        assertEquals(0, limiter.tryAcquire(6));
+        assertTrue(limiter.tryAcquire() < 0);
+    }
+
+    @Test
+    void shouldReportStatusOfTheDecision() {
+        for (var algorithm : LimiterAlgorithm.values()) {
+            clock.nextSecond();
+            var limiter = algorithm.create(10, clock);
+
+            var status = limiter.tryAcquireStatus(4);
+            assertTrue(RateLimitStatus.isAllowed(status), algorithm.name());
+            assertEquals(10, RateLimitStatus.getLimit(status), algorithm.name());
+            assertEquals(6, RateLimitStatus.getRemaining(status), algorithm.name());
+
+            assertTrue(RateLimitStatus.isAllowed(limiter.tryAcquireStatus(6)), algorithm.name());
+            status = limiter.tryAcquireStatus(1);
+            assertFalse(RateLimitStatus.isAllowed(status), algorithm.name());
+            assertEquals(10, RateLimitStatus.getLimit(status), algorithm.name());
+            assertEquals(0, RateLimitStatus.getRemaining(status), algorithm.name());
+            assertEquals(1, RateLimitStatus.getRetryAfter(status), algorithm.name());
+        }
+    }
+
+    @Test
+    void shouldRefuseLimitsThatDoNotFitPackedState() {
+        assertThrows(IllegalArgumentException.class, () -> new SlidingWindowLimiter(SlidingWindowLimiter.MAX_LIMIT + 1));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucketLimiter(TokenBucketLimiter.MAX_LIMIT + 1));
+    }
+}
@@ -0,0 +1,101 @@
+package com.vlasenko.task.throttling.limiter;
+
+import com.vlasenko.task.throttling.clock.ManualClock;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StripedLimiterTest {
+    private final ManualClock clock = new ManualClock();
+
+    @Test
+    void shouldAllowExactlyLimitFromSingleThread() {
+        clock.nextSecond();
+        var limiter = new StripedLimiter(1000, 8, clock);
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(limiter.tryAcquire() >= 0);
+        }
+        assertTrue(limiter.tryAcquire() < 0);
+    }
+
+    @Test
+    void shouldAllowExactlyLimitForConcurrentAccess() throws Exception {
+        clock.nextSecond();
+        var limiter = new StripedLimiter(20_000, 4, clock);
+        var allowed = new AtomicInteger();
+        var start = new CountDownLatch(1);
+        var countDownLatch = new CountDownLatch(16);
+
+        for (int i = 0; i < 16; i++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ignored) {
+                }
+                for (int j = 0; j < 2_000; j++) {
+                    if (limiter.tryAcquire() >= 0) {
+                        allowed.incrementAndGet();
+                    }
+                }
+                countDownLatch.countDown();
+            }).start();
+        }
+
+        start.countDown();
+        countDownLatch.await();
+        assertEquals(20_000, allowed.get());
+    }
+
+    @Test
+    void shouldTakeWeightedPermitsFromCentralBudget() {
+        clock.nextSecond();
+        var limiter = new StripedLimiter(1000, 4, clock);
+
+        assertEquals(500, limiter.tryAcquire(500));
+        assertTrue(limiter.tryAcquire(501) < 0);
+        assertTrue(limiter.tryAcquire(500) >= 0);
+        assertTrue(limiter.tryAcquire() < 0);
+    }
+
+    @Test
+    void shouldRefillOnTheNextSecond() {
+        clock.nextSecond();
+        var limiter = new StripedLimiter(100, 2, clock);
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire();
+        }
+        assertTrue(limiter.tryAcquire() < 0);
+
+        clock.nextSecond();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire() >= 0);
+        }
+        assertTrue(limiter.tryAcquire() < 0);
+    }
+
+    @Test
+    void shouldLetDrainedWindowGoOnOnceLimitIsRaised() {
+        var limiter = new StripedLimiter(100, 2, clock);
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire();
+        }
+        assertTrue(limiter.tryAcquire() < 0);
+
+        limiter.resize(150);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(limiter.tryAcquire() >= 0);
+        }
+        assertTrue(limiter.tryAcquire() < 0);
+
+        clock.nextSecond();
+        for (int i = 0; i < 150; i++) {
+            assertTrue(limiter.tryAcquire() >= 0);
+        }
+        assertTrue(limiter.tryAcquire() < 0);
+    }
+}
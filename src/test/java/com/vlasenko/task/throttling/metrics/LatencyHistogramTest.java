@@ -0,0 +1,37 @@
+package com.vlasenko.task.throttling.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void shouldPlaceEveryValueIntoBucketCoveringIt() {
+        for (long value = 0; value < 100_000; value += 7) {
+            var index = LatencyHistogram.index(value);
+            assertTrue(LatencyHistogram.upperBound(index) >= value);
+            assertTrue(index == 0 || LatencyHistogram.upperBound(index - 1) < value);
+        }
+        assertTrue(LatencyHistogram.upperBound(LatencyHistogram.index(Long.MAX_VALUE)) >= Long.MAX_VALUE);
+    }
+
+    @Test
+    void shouldReportPercentilesWithin12AndHalfPercent() {
+        var histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        var snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.get("count"));
+        assertEquals(1_000_000, snapshot.get("max"));
+        assertWithin(500_000, snapshot.get("p50"));
+        assertWithin(990_000, snapshot.get("p99"));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected * 1.125, expected + " vs " + actual);
+    }
+}
@@ -0,0 +1,74 @@
+package com.vlasenko.task.throttling.pace;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashedWheelTimerTest {
+    // A turn of the wheel takes 40 ms
+    private final HashedWheelTimer timer = new HashedWheelTimer("test-wheel", Duration.ofMillis(5), 8);
+
+    @AfterEach
+    void tearDown() {
+        timer.close();
+    }
+
+    @Test
+    void shouldRunTasksNotBeforeTheirDelayInDeadlineOrder() throws Exception {
+        var ran = new CopyOnWriteArrayList<Integer>();
+        var done = new CountDownLatch(3);
+        var started = System.nanoTime();
+        var lateness = new long[3];
+        // Over more than a turn of the wheel
+        var delays = List.of(130L, 20L, 70L);
+        for (int i = 0; i < delays.size(); i++) {
+            var index = i;
+            timer.schedule(() -> {
+                lateness[index] = System.nanoTime() - started - TimeUnit.MILLISECONDS.toNanos(delays.get(index));
+                ran.add(index);
+                done.countDown();
+            }, TimeUnit.MILLISECONDS.toNanos(delays.get(i)));
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 2, 0), ran);
+        for (var late : lateness) {
+            assertTrue(late >= 0, "ran " + late + " ns early");
+        }
+    }
+
+    @Test
+    void shouldRunTasksScheduledByTasks() throws Exception {
+        var done = new CountDownLatch(3);
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+                if (done.getCount() > 0) {
+                    timer.schedule(this, TimeUnit.MILLISECONDS.toNanos(10));
+                }
+            }
+        }, 0);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void shouldKeepRunningAfterFailedTask() throws Exception {
+        var done = new CountDownLatch(1);
+        timer.schedule(() -> {
+            throw new IllegalStateException("failed");
+        }, 0);
+        timer.schedule(done::countDown, TimeUnit.MILLISECONDS.toNanos(10));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
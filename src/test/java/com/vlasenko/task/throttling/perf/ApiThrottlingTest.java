@@ -1,17 +1,24 @@
 package com.vlasenko.task.throttling.perf;
 
 import com.vlasenko.task.TestTaskApplication;
-import com.vlasenko.task.profile.api.ProfileApi;
+import com.vlasenko.task.throttling.UserLimiterCache;
+import com.vlasenko.task.throttling.clock.ManualClock;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Primary;
 import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockAsyncContext;
 import org.springframework.test.annotation.DirtiesContext;
-import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
 
-import java.time.LocalTime;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
@@ -20,12 +27,17 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @AutoConfigureMockMvc
 @SpringBootTest(classes = TestTaskApplication.class)
+@Import(ApiThrottlingTest.ManualClockConfiguration.class)
 @DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
 class ApiThrottlingTest {
     private static final String BASE_URL = "https://localhost:8080";
@@ -34,7 +46,21 @@ class ApiThrottlingTest {
     private MockMvc mockMvc;
 
     @Autowired
-    private ProfileApi profileApi;
+    private ManualClock clock;
+
+    @Autowired
+    private UserLimiterCache userLimiterCache;
+
+    /**
+     * Not a component, so that contexts of other tests scanning this package keep the real clock.
+     */
+    static class ManualClockConfiguration {
+        @Bean
+        @Primary
+        ManualClock manualClock() {
+            return new ManualClock();
+        }
+    }
 
     @Test
     void shouldPerformGoodUnderHighLoad() throws Exception {
@@ -58,46 +84,44 @@ class ApiThrottlingTest {
         assertTrue(Arrays.stream(result).average().orElseThrow() <= 5);
     }
 
+    /**
+     * Only what throttling changes for clients is checked here, its cost is compared with a baseline without it by
+     * the JMH benchmarks and the load test reports, wall-clock ratios of MockMvc calls are too noisy for that.
+     */
     @Test
     void shouldCompareThrottlingPerformance() throws Exception {
-        int amount = 15_000;
-
-        var with = recordCallTimes(amount);
-
-        ReflectionTestUtils.setField(profileApi, "throttlingEnabled", false);
-        var without = recordCallTimes(amount);
-        ReflectionTestUtils.setField(profileApi, "throttlingEnabled", true);
-
-        var withAvg = with.stream().mapToLong(Long::valueOf).average().orElseThrow();
-        System.out.println("Average call time with throttling enabled: " + withAvg);
-        var withoutAvg = without.stream().mapToLong(Long::valueOf).average().orElseThrow();
-        System.out.println("Average call time with throttling disabled: " + withoutAvg);
-
-        assertTrue(withAvg > withoutAvg);
+        int amount = 100;
+
+        try (var baseline = new SpringApplicationBuilder(TestTaskApplication.class)
+                .properties("app.throttling.enabled=false", "server.port=0")
+                .run()) {
+            var withoutThrottling = MockMvcBuilders.webAppContextSetup((WebApplicationContext) baseline).build();
+            clock.nextSecond();
+            assertEquals(3, countAllowedGuestCalls(mockMvc, amount));
+            assertEquals(amount, countAllowedGuestCalls(withoutThrottling, amount));
+        }
     }
 
-    private List<Long> recordCallTimes(int callsAmount) throws Exception {
-        var result = new LinkedList<Long>();
+    private int countAllowedGuestCalls(MockMvc mockMvc, int callsAmount) throws Exception {
+        int allowed = 0;
         for (int i = 0; i < callsAmount; i++) {
-            if (i == 5000) {
-                Thread.sleep(1000);
+            var response = mockMvc.perform(get(BASE_URL + "/greetings")).andReturn().getResponse();
+            if (response.getStatus() == HttpStatus.OK.value()) {
+                allowed++;
             }
-            var curr = System.currentTimeMillis();
-            mockMvc.perform(get(BASE_URL + "/greetings").header("token", "token11"));
-            result.add(System.currentTimeMillis() - curr);
         }
-        return result;
+        return allowed;
     }
 
     @Test
     void shouldAllowGuestRequest() throws Exception {
-        waitTillTheStartOfTheSecond();
+        clock.nextSecond();
         mockMvc.perform(get(BASE_URL + "/greetings")).andExpect(status().isOk());
     }
 
     @Test
     void shouldAllowGuestRequestsWithinLimits() throws Exception {
-        waitTillTheStartOfTheSecond();
+        clock.nextSecond();
         for (int i = 0; i < 3; i++) {
             mockMvc.perform(get(BASE_URL + "/greetings")).andExpect(status().isOk());
         }
@@ -105,20 +129,70 @@ class ApiThrottlingTest {
 
     @Test
     void shouldNotAllowGuestRequestsAboveLimits() throws Exception {
-        waitTillTheStartOfTheSecond();
+        clock.nextSecond();
         for (int i = 0; i < 3; i++) {
             mockMvc.perform(get(BASE_URL + "/greetings")).andExpect(status().isOk());
         }
         mockMvc.perform(get(BASE_URL + "/greetings")).andExpect(status().is(HttpStatus.TOO_MANY_REQUESTS.value()));
     }
 
+    @Test
+    void shouldAnswerRejectedRequestsWithPlainTextBody() throws Exception {
+        clock.nextSecond();
+        for (int i = 0; i < 3; i++) {
+            mockMvc.perform(get(BASE_URL + "/greetings")).andExpect(status().isOk());
+        }
+        mockMvc.perform(get(BASE_URL + "/greetings"))
+                .andExpect(status().is(HttpStatus.TOO_MANY_REQUESTS.value()))
+                .andExpect(content().string("Too many requests"));
+    }
+
+    @Test
+    void shouldExposeThrottlingMetrics() throws Exception {
+        clock.nextSecond();
+        for (int i = 0; i < 4; i++) {
+            mockMvc.perform(get(BASE_URL + "/greetings"));
+        }
+        mockMvc.perform(get(BASE_URL + "/throttling/metrics"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.decisions.guest.allowed").value(3))
+                .andExpect(jsonPath("$.decisions.guest.rejected").value(1))
+                .andExpect(jsonPath("$.decisionLatencyNanos.count").value(4));
+    }
+
+    @Test
+    void shouldGreetGuestsRightAway() throws Exception {
+        clock.nextSecond();
+        mockMvc.perform(get(BASE_URL + "/greetings"))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isOk())
+                .andExpect(content().string("Hello there!!"));
+    }
+
+    @Test
+    void shouldDispatchUsersWaitingForSlaOnceAllowed() throws Exception {
+        clock.nextSecond();
+        var result = mockMvc.perform(get(BASE_URL + "/greetings").header("token", "token2"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        assertEquals("/greetings", awaitDispatch(result));
+    }
+
     @Test
     void shouldAllowUserWithinRpsLimits() throws Exception {
-        waitTillTheStartOfTheSecond();
-        // begin SLA evaluation for users
-        mockMvc.perform(get(BASE_URL + "/greetings").header("token", "token11")).andExpect(status().isOk());
-        mockMvc.perform(get(BASE_URL + "/greetings").header("token", "token2")).andExpect(status().isOk());
-        Thread.sleep(2_000);
+        clock.nextSecond();
+        // begin SLA evaluation for users, their first requests wait for it and are then let in as guests
+        var first = mockMvc.perform(get(BASE_URL + "/greetings").header("token", "token11"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        var second = mockMvc.perform(get(BASE_URL + "/greetings").header("token", "token2"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertEquals("/greetings", awaitDispatch(first));
+        assertEquals("/greetings", awaitDispatch(second));
+        awaitSla("user1");
+        awaitSla("user2");
 
         mockMvc.perform(get(BASE_URL + "/greetings").header("token", "token11")).andExpect(status().isOk());
         mockMvc.perform(get(BASE_URL + "/greetings").header("token", "token12")).andExpect(status().is(HttpStatus.TOO_MANY_REQUESTS.value()));
@@ -128,10 +202,21 @@ class ApiThrottlingTest {
         mockMvc.perform(get(BASE_URL + "/greetings").header("token", "token2")).andExpect(status().is(HttpStatus.TOO_MANY_REQUESTS.value()));
     }
 
-    private void waitTillTheStartOfTheSecond() {
-        try {
-            Thread.sleep(1001 - LocalTime.now().getNano() / 1_000_000);
-        } catch (InterruptedException ignored) {
+    /**
+     * @return path the request waiting for its decision was dispatched to, null if it was not within 5 seconds
+     */
+    private static String awaitDispatch(MvcResult result) throws InterruptedException {
+        var async = (MockAsyncContext) result.getRequest().getAsyncContext();
+        for (int i = 0; i < 500 && async.getDispatchedPath() == null; i++) {
+            Thread.sleep(10);
+        }
+        return async.getDispatchedPath();
+    }
+
+    private void awaitSla(String user) throws InterruptedException {
+        for (int i = 0; i < 500 && userLimiterCache.getIfPresent(user) == null; i++) {
+            Thread.sleep(10);
         }
+        assertNotNull(userLimiterCache.getIfPresent(user), "SLA of " + user + " is not loaded");
     }
 }
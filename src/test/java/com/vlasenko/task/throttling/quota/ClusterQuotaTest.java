@@ -0,0 +1,66 @@
+package com.vlasenko.task.throttling.quota;
+
+import com.vlasenko.task.TestTaskApplication;
+import com.vlasenko.task.throttling.ThrottlingService;
+import com.vlasenko.task.throttling.clock.ManualClock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Several application contexts in one JVM play the nodes of a cluster sharing the loopback coordinator and
+ * one manual clock.
+ */
+class ClusterQuotaTest {
+    private static final int NODES = 3;
+    private static final Optional<String> TOKEN = Optional.of("token2");
+    private static final int USER_RPS = 2;
+    private static final ManualClock CLOCK = new ManualClock();
+
+    private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        nodes.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    void shouldEnforceUserLimitAcrossNodes() {
+        var services = new ArrayList<ThrottlingService>();
+        for (int i = 0; i < NODES; i++) {
+            var node = new SpringApplicationBuilder(TestTaskApplication.class)
+                    .web(WebApplicationType.NONE)
+                    .properties("app.throttling.quota.coordinator=loopback",
+                            "app.throttling.quota.cluster=" + getClass().getName())
+                    .initializers((GenericApplicationContext context) -> context.registerBean(ManualClock.class,
+                            () -> CLOCK, definition -> definition.setPrimary(true)))
+                    .run();
+            nodes.add(node);
+            services.add(node.getBean(ThrottlingService.class));
+        }
+        // Let every node load the SLA
+        services.forEach(service ->
+                service.isRequestAllowedAsync(TOKEN, Duration.ofSeconds(10)).toCompletableFuture().join());
+        CLOCK.nextSecond();
+
+        var allowed = 0;
+        for (int i = 0; i < USER_RPS; i++) {
+            for (var service : services) {
+                if (service.isRequestAllowed(TOKEN)) {
+                    allowed++;
+                }
+            }
+        }
+        assertEquals(USER_RPS, allowed);
+    }
+}
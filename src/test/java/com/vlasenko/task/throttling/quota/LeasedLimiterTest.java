@@ -0,0 +1,114 @@
+package com.vlasenko.task.throttling.quota;
+
+import com.vlasenko.task.throttling.clock.ManualClock;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LeasedLimiterTest {
+    private final ManualClock clock = new ManualClock();
+
+    @Test
+    void shouldShareLimitBetweenNodes() {
+        clock.nextSecond();
+        var coordinator = new LoopbackQuotaCoordinator(UUID.randomUUID().toString());
+        var first = new LeasedLimiter("user", 100, 10, coordinator, clock);
+        var second = new LeasedLimiter("user", 100, 10, coordinator, clock);
+
+        var allowed = 0;
+        for (int i = 0; i < 100; i++) {
+            if (first.tryAcquire() >= 0) {
+                allowed++;
+            }
+            if (second.tryAcquire() >= 0) {
+                allowed++;
+            }
+        }
+        assertEquals(100, allowed);
+    }
+
+    @Test
+    void shouldLeaseInBatches() {
+        clock.nextSecond();
+        var coordinator = new LoopbackQuotaCoordinator(UUID.randomUUID().toString());
+        var limiter = new LeasedLimiter("user", 100, 10, coordinator, clock);
+
+        assertEquals(9, limiter.tryAcquire());
+        assertEquals(90, coordinator.lease("user", 100, clock.seconds(), 100));
+    }
+
+    @Test
+    void shouldLeaseEnoughForWeightedRequests() {
+        clock.nextSecond();
+        var coordinator = new LoopbackQuotaCoordinator(UUID.randomUUID().toString());
+        var first = new LeasedLimiter("user", 100, 10, coordinator, clock);
+        var second = new LeasedLimiter("user", 100, 10, coordinator, clock);
+
+        assertEquals(0, first.tryAcquire(60));
+        assertTrue(second.tryAcquire(50) < 0);
+        assertEquals(0, second.tryAcquire(40));
+        assertTrue(first.tryAcquire() < 0);
+    }
+
+    @Test
+    void shouldLeaseUpToLimitInEachWindow() {
+        var coordinator = new LoopbackQuotaCoordinator(UUID.randomUUID().toString());
+        var window = clock.seconds();
+        assertEquals(7, coordinator.lease("user", 10, window, 7));
+        assertEquals(3, coordinator.lease("user", 10, window, 7));
+        assertEquals(0, coordinator.lease("user", 10, window, 1));
+        assertEquals(10, coordinator.lease("user", 10, window + 1, 10));
+    }
+
+    @Test
+    void shouldNotAskCoordinatorAgainOnceWindowIsExhausted() {
+        var leases = new AtomicInteger();
+        QuotaCoordinator coordinator = (user, limit, window, permits) -> {
+            leases.incrementAndGet();
+            return 0;
+        };
+        var limiter = new LeasedLimiter("user", 10, 2, coordinator, clock);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire() < 0);
+        }
+        assertEquals(1, leases.get());
+
+        clock.nextSecond();
+        assertTrue(limiter.tryAcquire() < 0);
+        assertEquals(2, leases.get());
+    }
+
+    @Test
+    void shouldSpendReleasedPermitsOfExhaustedWindow() {
+        var coordinator = new LoopbackQuotaCoordinator(UUID.randomUUID().toString());
+        var limiter = new LeasedLimiter("user", 2, 1, coordinator, clock);
+        assertEquals(0, limiter.tryAcquire(2));
+        assertTrue(limiter.tryAcquire() < 0);
+
+        limiter.release(1);
+        assertEquals(0, limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire() < 0);
+    }
+
+    @Test
+    void shouldRefillOnTheNextSecond() {
+        clock.nextSecond();
+        var coordinator = new LoopbackQuotaCoordinator(UUID.randomUUID().toString());
+        var limiter = new LeasedLimiter("user", 5, 2, coordinator, clock);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire() >= 0);
+        }
+        assertTrue(limiter.tryAcquire() < 0);
+
+        clock.nextSecond();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire() >= 0);
+        }
+        assertTrue(limiter.tryAcquire() < 0);
+    }
+}
@@ -0,0 +1,95 @@
+package com.vlasenko.task.throttling.sla;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchingSlaServiceTest {
+    private final CountingSlaService backend = new CountingSlaService();
+    private BatchingSlaService service;
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void shouldSendManyLookupsInFewBackendCalls() throws Exception {
+        service = new BatchingSlaService(backend, Duration.ofMillis(20), 100, 2);
+        var futures = new ArrayList<CompletableFuture<SlaService.SLA>>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(service.getSlaByToken("token" + i));
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("user" + i, futures.get(i).get(5, TimeUnit.SECONDS).getUser());
+        }
+        assertEquals(1000, backend.tokens.get());
+        assertTrue(backend.calls.get() <= 20, "Backend calls: " + backend.calls.get());
+    }
+
+    @Test
+    void shouldFlushSingleLookupAfterMaxDelay() throws Exception {
+        service = new BatchingSlaService(backend, Duration.ofMillis(5), 100, 2);
+
+        assertEquals("user1", service.getSlaByToken("token1").get(5, TimeUnit.SECONDS).getUser());
+        assertNull(service.getSlaByToken("unknown").get(5, TimeUnit.SECONDS));
+        assertEquals(2, backend.calls.get());
+    }
+
+    @Test
+    void shouldCompleteAllWaitersOfTheSameToken() throws Exception {
+        service = new BatchingSlaService(backend, Duration.ofMillis(20), 100, 2);
+
+        var first = service.getSlaByToken("token7");
+        var second = service.getSlaByToken("token7");
+        assertEquals("user7", first.get(5, TimeUnit.SECONDS).getUser());
+        assertEquals("user7", second.get(5, TimeUnit.SECONDS).getUser());
+        assertEquals(1, backend.tokens.get());
+    }
+
+    /**
+     * In-process SLA backend that knows users for tokens named {@code token<N>} and counts calls made to it.
+     */
+    private static class CountingSlaService implements SlaService {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger tokens = new AtomicInteger();
+
+        @Override
+        public CompletableFuture<SLA> getSlaByToken(String token) {
+            calls.incrementAndGet();
+            tokens.incrementAndGet();
+            return CompletableFuture.completedFuture(find(token));
+        }
+
+        @Override
+        public CompletableFuture<Map<String, SLA>> getSlaByTokens(Collection<String> tokens) {
+            calls.incrementAndGet();
+            this.tokens.addAndGet(tokens.size());
+            var result = new HashMap<String, SLA>();
+            tokens.forEach(token -> {
+                var sla = find(token);
+                if (sla != null) {
+                    result.put(token, sla);
+                }
+            });
+            return CompletableFuture.completedFuture(result);
+        }
+
+        private SLA find(String token) {
+            return token.startsWith("token") ? new SLA("user" + token.substring(5), 5) : null;
+        }
+    }
+}
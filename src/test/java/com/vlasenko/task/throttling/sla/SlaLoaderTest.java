@@ -0,0 +1,136 @@
+package com.vlasenko.task.throttling.sla;
+
+import com.vlasenko.task.throttling.metrics.ThrottlingMetrics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SlaLoaderTest {
+
+    @Mock
+    private SlaService slaService;
+
+    @Test
+    void shouldLoadOncePerUserForConcurrentCallers() throws Exception {
+        var future = new CompletableFuture<SlaService.SLA>();
+        var completions = new AtomicInteger();
+        when(slaService.getSlaByToken(anyString())).thenReturn(future);
+        var loader = loader(Duration.ofSeconds(10), 1, 20);
+
+        var threads = 8;
+        var countDownLatch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            var token = "token" + i;
+            new Thread(() -> {
+                loader.load(token, "user", (sla, ex) -> completions.incrementAndGet());
+                countDownLatch.countDown();
+            }).start();
+        }
+        countDownLatch.await();
+        future.complete(new SlaService.SLA("user", 5));
+
+        verify(slaService, times(1)).getSlaByToken(anyString());
+        assertEquals(1, completions.get());
+        assertEquals(0, loader.getInFlightCount());
+    }
+
+    @Test
+    void shouldRetryTimedOutCallsAndCacheTheFailure() {
+        when(slaService.getSlaByToken("token")).thenReturn(new CompletableFuture<>());
+        var loader = loader(Duration.ofMillis(20), 3, 20);
+
+        var load = loader.load("token", "user", (sla, ex) -> {
+        });
+        var ex = assertThrows(ExecutionException.class, () -> load.get(5, TimeUnit.SECONDS));
+        assertTrue(ex.getCause() instanceof TimeoutException);
+        verify(slaService, times(3)).getSlaByToken("token");
+
+        // Negatively cached: no more calls
+        assertTrue(loader.load("token", "user", (sla, e) -> {
+        }).isCompletedExceptionally());
+        verify(slaService, times(3)).getSlaByToken("token");
+    }
+
+    @Test
+    void shouldTreatMissingSlaAsFailure() {
+        when(slaService.getSlaByToken("token")).thenReturn(CompletableFuture.completedFuture(null));
+        var loader = loader(Duration.ofSeconds(10), 3, 20);
+
+        assertTrue(loader.load("token", "user", (sla, ex) -> {
+        }).isCompletedExceptionally());
+        verify(slaService, times(1)).getSlaByToken("token");
+    }
+
+    @Test
+    void shouldStopCallingBackendWhenCircuitIsOpen() {
+        when(slaService.getSlaByToken(anyString())).thenReturn(CompletableFuture.failedFuture(new RuntimeException()));
+        var loader = loader(Duration.ofSeconds(10), 1, 3);
+
+        for (int i = 0; i < 3; i++) {
+            loader.load("token" + i, "user" + i, (sla, ex) -> {
+            });
+        }
+        verify(slaService, times(3)).getSlaByToken(anyString());
+
+        assertTrue(loader.load("token", "user", (sla, ex) -> {
+        }).isCompletedExceptionally());
+        verify(slaService, never()).getSlaByToken("token");
+    }
+
+    @Test
+    void shouldNotCacheLoadsRefusedByOpenCircuit() throws Exception {
+        when(slaService.getSlaByToken("token"))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException()))
+                .thenReturn(CompletableFuture.completedFuture(new SlaService.SLA("user", 5)));
+        var loader = new SlaLoader(slaService, Duration.ofSeconds(10), 3, Duration.ofMillis(10), Duration.ofMinutes(1),
+                1, Duration.ofMillis(200), new ThrottlingMetrics());
+
+        var load = loader.load("token", "user", (sla, ex) -> {
+        });
+        // The retry is refused by the circuit the first failure opened
+        var ex = assertThrows(ExecutionException.class, () -> load.get(5, TimeUnit.SECONDS));
+        assertTrue(ex.getCause() instanceof IllegalStateException);
+
+        Thread.sleep(300);
+        assertEquals(5, loader.load("token", "user", (sla, e) -> {
+        }).get(5, TimeUnit.SECONDS).getRps());
+        verify(slaService, times(2)).getSlaByToken("token");
+    }
+
+    @Test
+    void shouldReturnLoadInFlightToLaterCallers() {
+        var future = new CompletableFuture<SlaService.SLA>();
+        when(slaService.getSlaByToken("token")).thenReturn(future);
+        var loader = loader(Duration.ofSeconds(10), 1, 20);
+
+        var first = loader.load("token", "user", (sla, ex) -> {
+        });
+        assertSame(first, loader.load("token", "user", (sla, ex) -> {
+        }));
+    }
+
+    private SlaLoader loader(Duration timeout, int maxAttempts, int failureThreshold) {
+        return new SlaLoader(slaService, timeout, maxAttempts, Duration.ofMillis(10), Duration.ofMinutes(1),
+                failureThreshold, Duration.ofMinutes(1), new ThrottlingMetrics());
+    }
+}
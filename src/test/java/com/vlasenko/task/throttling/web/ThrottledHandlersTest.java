@@ -0,0 +1,95 @@
+package com.vlasenko.task.throttling.web;
+
+import com.vlasenko.task.throttling.LimiterFactory;
+import com.vlasenko.task.throttling.QuotaHierarchy;
+import com.vlasenko.task.throttling.clock.Clock;
+import com.vlasenko.task.throttling.limiter.LimiterAlgorithm;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ThrottledHandlersTest {
+    private final Controller controller = new Controller();
+    private ThrottledHandlers handlers;
+
+    @BeforeEach
+    void setUp() {
+        var quotas = new QuotaHierarchy(
+                new LimiterFactory(LimiterAlgorithm.FIXED_WINDOW, 10_000, 0, null, 10, Clock.SYSTEM), 0,
+                Map.of("reports", 10));
+        handlers = new ThrottledHandlers(quotas);
+    }
+
+    @Test
+    void shouldBindCostAndBucketOfAnnotatedHandlers() throws Exception {
+        var report = handler("report");
+        var plain = handler("plain");
+        var async = handler("async");
+        handlers.bind(Map.of(RequestMappingInfo.paths("/report").build(), report,
+                RequestMappingInfo.paths("/plain/{id}").build(), plain,
+                RequestMappingInfo.paths("/async").build(), async));
+
+        var binding = handlers.get(report);
+        assertEquals(5, binding.getCost());
+        assertEquals("reports", binding.getBucket());
+
+        binding = handlers.get(plain);
+        assertEquals(1, binding.getCost());
+        assertEquals("/plain/{id}", binding.getBucket());
+
+        binding = handlers.get(async);
+        assertEquals(2, binding.getCost());
+        assertEquals("/async", binding.getBucket());
+    }
+
+    @Test
+    void shouldUseDefaultBindingForUnknownHandlers() throws Exception {
+        assertSame(ThrottledHandlers.DEFAULT, handlers.get(handler("plain")));
+        assertSame(ThrottledHandlers.DEFAULT, handlers.get(new Object()));
+        assertNull(ThrottledHandlers.DEFAULT.getBucket());
+    }
+
+    @Test
+    void shouldRefuseNonPositiveCost() throws Exception {
+        var free = handler("free");
+
+        assertThrows(IllegalStateException.class,
+                () -> handlers.bind(Map.of(RequestMappingInfo.paths("/free").build(), free)));
+    }
+
+    private HandlerMethod handler(String name) throws NoSuchMethodException {
+        return new HandlerMethod(controller, Controller.class.getMethod(name));
+    }
+
+    @Throttled(cost = 2)
+    public static class Controller {
+        @Throttled(cost = 5, bucket = "reports")
+        public String report() {
+            return "report";
+        }
+
+        @Throttled
+        public String plain() {
+            return "plain";
+        }
+
+        public CompletionStage<String> async() {
+            return CompletableFuture.completedFuture("async");
+        }
+
+        @Throttled(cost = 0)
+        public String free() {
+            return "free";
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.vlasenko.task.throttling.web;
+
+import com.vlasenko.task.throttling.LimiterFactory;
+import com.vlasenko.task.throttling.QuotaHierarchy;
+import com.vlasenko.task.throttling.RateLimitStatus;
+import com.vlasenko.task.throttling.ThrottlingDecision;
+import com.vlasenko.task.throttling.ThrottlingService;
+import com.vlasenko.task.throttling.clock.Clock;
+import com.vlasenko.task.throttling.concurrency.AdaptiveConcurrencyLimiter;
+import com.vlasenko.task.throttling.limiter.LimiterAlgorithm;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+
+import javax.servlet.DispatcherType;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ThrottlingInterceptorTest {
+    @Mock
+    private ThrottlingService throttlingService;
+
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private ThrottledHandlers handlers;
+    private ThrottlingInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() {
+        var quotas = new QuotaHierarchy(
+                new LimiterFactory(LimiterAlgorithm.FIXED_WINDOW, 10_000, 0, null, 10, Clock.SYSTEM), 0,
+                Map.of());
+        concurrencyLimiter = new AdaptiveConcurrencyLimiter(1, 1, 10, 0.2, 1.5, Duration.ofMillis(100), 10, 600);
+        handlers = new ThrottledHandlers(quotas);
+        interceptor = new ThrottlingInterceptor(throttlingService, handlers, concurrencyLimiter, true, Duration.ZERO,
+                "");
+    }
+
+    @Test
+    void shouldShedRequestsOverConcurrencyLimitBeforeCheckingUsers() throws Exception {
+        when(throttlingService.tryAcquireStatus(any(), any(), any(), anyInt()))
+                .thenReturn(RateLimitStatus.of(true, 10, 9, 0));
+        var first = new MockHttpServletRequest();
+        assertTrue(interceptor.preHandle(first, new MockHttpServletResponse(), new Object()));
+
+        var response = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(new MockHttpServletRequest(), response, new Object()));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), response.getStatus());
+
+        interceptor.afterCompletion(first, new MockHttpServletResponse(), new Object(), null);
+        assertEquals(0, concurrencyLimiter.getInFlight());
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), new Object()));
+    }
+
+    @Test
+    void shouldLeaveConcurrencyLimitWhenUserIsThrottled() throws Exception {
+        when(throttlingService.tryAcquireStatus(any(), any(), any(), anyInt()))
+                .thenReturn(RateLimitStatus.of(false, 10, 0, 0));
+        var response = new MockHttpServletResponse();
+
+        assertFalse(interceptor.preHandle(new MockHttpServletRequest(), response, new Object()));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), response.getStatus());
+        assertEquals(0, concurrencyLimiter.getInFlight());
+    }
+
+    @Test
+    void shouldTellClientsTheirLimitOnAllowedAndRejectedResponses() throws Exception {
+        when(throttlingService.tryAcquireStatus(any(), any(), any(), anyInt()))
+                .thenReturn(RateLimitStatus.of(true, 10, 3, 400_000_000))
+                .thenReturn(RateLimitStatus.of(false, 10, -1, 1_500_000_000));
+        var request = new MockHttpServletRequest();
+        var allowed = new MockHttpServletResponse();
+        assertTrue(interceptor.preHandle(request, allowed, new Object()));
+        interceptor.afterCompletion(request, allowed, new Object(), null);
+        var rejected = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(new MockHttpServletRequest(), rejected, new Object()));
+
+        assertEquals("10", allowed.getHeader(ThrottlingInterceptor.LIMIT_HEADER));
+        assertEquals("3", allowed.getHeader(ThrottlingInterceptor.REMAINING_HEADER));
+        assertEquals("1", allowed.getHeader(HttpHeaders.RETRY_AFTER));
+        assertEquals("10", rejected.getHeader(ThrottlingInterceptor.LIMIT_HEADER));
+        assertEquals("0", rejected.getHeader(ThrottlingInterceptor.REMAINING_HEADER));
+        assertEquals("2", rejected.getHeader(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    void shouldAnswerRejectedPendingDecisionWithoutDispatchingToHandler() throws Exception {
+        var decision = new CompletableFuture<ThrottlingDecision>();
+        decideLater(decision);
+        var request = pendingRequest();
+        var response = new MockHttpServletResponse();
+
+        assertFalse(interceptor.preHandle(request, response, handler()));
+        assertTrue(request.isAsyncStarted());
+        assertEquals(0, concurrencyLimiter.getInFlight());
+
+        decision.complete(ThrottlingDecision.of(RateLimitStatus.of(false, 10, 0, 0)));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), response.getStatus());
+        assertEquals("1", response.getHeader(HttpHeaders.RETRY_AFTER));
+        assertNull(((MockAsyncContext) request.getAsyncContext()).getDispatchedPath());
+        assertFalse(request.isAsyncStarted());
+        assertEquals(0, concurrencyLimiter.getInFlight());
+    }
+
+    @Test
+    void shouldDispatchToHandlerOncePendingDecisionAllows() throws Exception {
+        var decision = new CompletableFuture<ThrottlingDecision>();
+        decideLater(decision);
+        var request = pendingRequest();
+        var response = new MockHttpServletResponse();
+
+        assertFalse(interceptor.preHandle(request, response, handler()));
+        decision.complete(ThrottlingDecision.of(RateLimitStatus.of(true, 10, 4, 0)));
+
+        assertEquals("/greetings", ((MockAsyncContext) request.getAsyncContext()).getDispatchedPath());
+        assertEquals("4", response.getHeader(ThrottlingInterceptor.REMAINING_HEADER));
+        assertEquals(HttpStatus.OK.value(), response.getStatus());
+    }
+
+    @Test
+    void shouldShedPendingRequestIfConcurrencyLimitIsFullOnceAllowed() throws Exception {
+        var decision = new CompletableFuture<ThrottlingDecision>();
+        decideLater(decision);
+        var request = pendingRequest();
+        var response = new MockHttpServletResponse();
+
+        assertFalse(interceptor.preHandle(request, response, handler()));
+        // The parked request does not keep others out
+        assertTrue(concurrencyLimiter.tryAcquire());
+        decision.complete(ThrottlingDecision.of(RateLimitStatus.of(true, 10, 4, 0)));
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), response.getStatus());
+        assertNull(((MockAsyncContext) request.getAsyncContext()).getDispatchedPath());
+        assertFalse(request.isAsyncStarted());
+        assertEquals(1, concurrencyLimiter.getInFlight());
+    }
+
+    @Test
+    void shouldNotSampleLatencyOfRejectedPendingRequest() throws Exception {
+        var sampled = spy(concurrencyLimiter);
+        interceptor = new ThrottlingInterceptor(throttlingService, handlers, sampled, true, Duration.ZERO, "");
+        var decision = new CompletableFuture<ThrottlingDecision>();
+        decideLater(decision);
+        var request = pendingRequest();
+        var response = new MockHttpServletResponse();
+
+        interceptor.preHandle(request, response, handler());
+        decision.complete(ThrottlingDecision.of(RateLimitStatus.of(false, 10, 0, 0)));
+        interceptor.afterCompletion(request, response, handler(), null);
+
+        verify(sampled, never()).onComplete(anyLong());
+        assertEquals(0, sampled.getInFlight());
+    }
+
+    @Test
+    void shouldSampleLatencyOfDispatchedPendingRequestWithoutItsWait() throws Exception {
+        var sampled = spy(concurrencyLimiter);
+        interceptor = new ThrottlingInterceptor(throttlingService, handlers, sampled, true, Duration.ZERO, "");
+        var decision = new CompletableFuture<ThrottlingDecision>();
+        decideLater(decision);
+        var request = pendingRequest();
+        var response = new MockHttpServletResponse();
+        var wait = Duration.ofMillis(200);
+
+        interceptor.preHandle(request, response, handler());
+        Thread.sleep(wait.toMillis());
+        decision.complete(ThrottlingDecision.of(RateLimitStatus.of(true, 10, 4, 0)));
+        request.setDispatcherType(DispatcherType.ASYNC);
+        assertTrue(interceptor.preHandle(request, response, handler()));
+        interceptor.afterCompletion(request, response, handler(), null);
+
+        verify(sampled).onComplete(longThat(latency -> latency < wait.toNanos()));
+        assertEquals(0, sampled.getInFlight());
+    }
+
+    @Test
+    void shouldLeaveConcurrencyLimitWhenDecisionFails() {
+        when(throttlingService.tryAcquireStatus(any(), any(), any(), anyInt()))
+                .thenThrow(new IllegalStateException("Broken"));
+
+        assertThrows(IllegalStateException.class,
+                () -> interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), new Object()));
+        assertEquals(0, concurrencyLimiter.getInFlight());
+    }
+
+    @Test
+    void shouldNotCheckUsersOfShedRequests() throws Exception {
+        concurrencyLimiter.tryAcquire();
+
+        assertFalse(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), new Object()));
+        verifyNoInteractions(throttlingService);
+    }
+
+    private void decideLater(CompletableFuture<ThrottlingDecision> decision) {
+        when(throttlingService.tryAcquireStatus(any(), any(), any(), anyInt(), any(), any(), any()))
+                .then(invocation -> {
+                    invocation.<BiConsumer<Object, CompletionStage<ThrottlingDecision>>>getArgument(6)
+                            .accept(invocation.getArgument(5), decision);
+                    return RateLimitStatus.PENDING;
+                });
+    }
+
+    private static MockHttpServletRequest pendingRequest() {
+        var request = new MockHttpServletRequest("GET", "/greetings");
+        request.setAsyncSupported(true);
+        return request;
+    }
+
+    /**
+     * Handler of a controller that does not look at the decision at all
+     */
+    private HandlerMethod handler() throws NoSuchMethodException {
+        var handler = new HandlerMethod(new Controller(), Controller.class.getMethod("greet"));
+        handlers.bind(Map.of(RequestMappingInfo.paths("/greetings").build(), handler));
+        return handler;
+    }
+
+    public static class Controller {
+        public CompletionStage<String> greet() {
+            return CompletableFuture.completedFuture("Hello");
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.vlasenko.task.watch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileWatcherTest {
+
+    @Test
+    void shouldLoadFileOnlyWhenItChanges(@TempDir Path directory) throws Exception {
+        var file = directory.resolve("watched.txt");
+        Files.writeString(file, "first");
+        var loaded = new ArrayList<String>();
+        var watcher = new FileWatcher(file, "watched file", Duration.ofHours(1), path -> load(path, loaded));
+        assertEquals(List.of("first"), loaded);
+
+        assertFalse(watcher.reload());
+
+        Files.writeString(file, "second");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(1)));
+        assertTrue(watcher.reload());
+        assertEquals(List.of("first", "second"), loaded);
+        watcher.shutdown();
+    }
+
+    @Test
+    void shouldLoadFileAgainAfterFailedLoad(@TempDir Path directory) throws Exception {
+        var file = directory.resolve("watched.txt");
+        Files.writeString(file, "first");
+        var loaded = new ArrayList<String>();
+        var watcher = new FileWatcher(file, "watched file", Duration.ofHours(1), path -> load(path, loaded));
+
+        Files.writeString(file, "broken");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(1)));
+        assertThrows(IOException.class, watcher::reload);
+        assertThrows(IOException.class, watcher::reload);
+
+        Files.writeString(file, "second");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(2)));
+        assertTrue(watcher.reload());
+        assertEquals(List.of("first", "second"), loaded);
+        watcher.shutdown();
+    }
+
+    @Test
+    void shouldFailWithoutFile(@TempDir Path directory) {
+        assertThrows(UncheckedIOException.class, () -> new FileWatcher(directory.resolve("missing.txt"),
+                "watched file", Duration.ofHours(1), path -> {
+                }));
+    }
+
+    private static void load(Path file, List<String> loaded) throws IOException {
+        var content = Files.readString(file);
+        if (content.equals("broken")) {
+            throw new IOException("Cannot parse " + file);
+        }
+        loaded.add(content);
+    }
+}